@@ -56,13 +56,13 @@ public final class QuiltLoaderConfig {
 	 * since everything happens whenever plugins request it. Doesn't apply to the gui.
 	 * <p>
 	 * Note that all plugin methods are always invoked on the main thread - this only affects actions performed by
-	 * quilt-loader, or tasks submitted by plugins. */
+	 * quilt-loader, or tasks submitted by plugins.
+	 * <p>
+	 * Unlike the other options this isn't written to the file when it's missing, so that the default can change once
+	 * multi-threaded loading has been tested more widely. */
 	public final boolean singleThreadedLoading;
 
 	public QuiltLoaderConfig(Path from) {
-		// Multi-threaded doesn't work yet, so hardcode this
-		singleThreadedLoading = true;
-
 		// Unfortunately this loads too early to use QuiltConfig
 		// so instead just load from a properties file.
 		Properties props = new Properties();
@@ -81,6 +81,7 @@ public final class QuiltLoaderConfig {
 		loadSubFolders = getBool(props, "load_sub_folders", true);
 		restrictGameVersions = getBool(props, "restrict_game_versions", true);
 		alwaysShowModStateWindow = getBool(props, "always_show_mod_state_window", false);
+		singleThreadedLoading = getBool(props, "single_threaded_loading", true, false);
 
 		if (!original.equals(props)) {
 			try (OutputStream out = Files.newOutputStream(from)) {
@@ -100,9 +101,17 @@ public final class QuiltLoaderConfig {
 	}
 
 	private static boolean getBool(Properties props, String key, boolean _default) {
+		return getBool(props, key, _default, true);
+	}
+
+	/** @param store If true then the default value is added to the properties when the key is missing, so it's written
+	 *            to the file. */
+	private static boolean getBool(Properties props, String key, boolean _default, boolean store) {
 		String value = props.getProperty(key);
 		if (value == null) {
-			props.setProperty(key, Boolean.toString(_default));
+			if (store) {
+				props.setProperty(key, Boolean.toString(_default));
+			}
 			return _default;
 		}
 
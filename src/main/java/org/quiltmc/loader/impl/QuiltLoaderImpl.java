@@ -75,6 +75,7 @@ import org.quiltmc.loader.impl.discovery.ModResolutionException;
 import org.quiltmc.loader.impl.discovery.ModSolvingError;
 import org.quiltmc.loader.impl.entrypoint.EntrypointStorage;
 import org.quiltmc.loader.impl.entrypoint.EntrypointUtils;
+import org.quiltmc.loader.impl.filesystem.QuiltClassPath;
 import org.quiltmc.loader.impl.filesystem.QuiltJoinedFileSystem;
 import org.quiltmc.loader.impl.filesystem.QuiltJoinedPath;
 import org.quiltmc.loader.impl.filesystem.QuiltZipFileSystem;
@@ -216,6 +217,8 @@ public final class QuiltLoaderImpl {
 		this.gameDir = gameDir;
 
 		this.cacheDir = gameDir.resolve(System.getProperty(SystemProperties.CACHE_DIRECTORY, DEFAULT_CACHE_DIR));
+		QuiltClassPath.setSnapshotFolder(cacheDir.resolve(CACHE_DIR_NAME).resolve("class-path-snapshots"));
+		FileHasherImpl.setPersistentCacheFile(cacheDir.resolve(CACHE_DIR_NAME).resolve("file-hashes.bin"));
 		this.configDir = gameDir.resolve(System.getProperty(SystemProperties.CONFIG_DIRECTORY, DEFAULT_CONFIG_DIR));
 
 		initializeModsDir(gameDir);
@@ -380,6 +383,8 @@ public final class QuiltLoaderImpl {
 		try {
 			QuiltLauncherBase.getLauncher().setTransformCache(transformedModBundle.toUri().toURL());
 			QuiltLauncherBase.getLauncher().setHiddenClasses(cacheResult.hiddenClasses);
+			QuiltLauncherBase.getLauncher().setPackageEnvironments(cacheResult.packageEnvironments);
+			QuiltLauncherBase.getLauncher().setClassLoadTrace(transformCacheFolder.resolve(TransformCacheManager.CLASS_LOAD_TRACE));
 		} catch (MalformedURLException e) {
 			throw new RuntimeException(e);
 		}
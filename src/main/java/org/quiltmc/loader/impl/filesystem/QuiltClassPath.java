@@ -31,6 +31,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -67,11 +68,17 @@ public class QuiltClassPath {
 
 	private final List<Path> allRoots = VALIDATE ? new CopyOnWriteArrayList<>() : null;
 	private final List<Path> roots = new CopyOnWriteArrayList<>();
-	private final FileMap files = USE_CUSTOM_TABLE ? new HashTableFileMap() : new StandardFileMap();
+	private final FileMap files = USE_CUSTOM_TABLE ? new CompactFileMap() : new StandardFileMap();
 
 	/** Set if {@link #VALIDATE} finds a problem. */
 	private static boolean printFullDetail = false;
 
+	/** Sets the folder to store snapshots of scanned jar files in, so they don't need to be scanned again on the next
+	 * launch. */
+	public static void setSnapshotFolder(Path folder) {
+		QuiltClassPathSnapshot.setFolder(folder);
+	}
+
 	public void addRoot(Path root) {
 		if (VALIDATE) {
 			allRoots.add(root);
@@ -113,6 +120,15 @@ public class QuiltClassPath {
 			FileSystem fs = root.getFileSystem();
 
 			if ("jar".equals(fs.provider().getScheme())) {
+				List<String> snapshot = QuiltClassPathSnapshot.load(root);
+				if (snapshot != null) {
+					files.ensureCapacityFor(snapshot.size());
+					for (String path : snapshot) {
+						files.put(root, path);
+					}
+					return;
+				}
+
 				// Assume it's read-only for speed
 				roots.add(root);
 				beginScanning(root);
@@ -162,6 +178,7 @@ public class QuiltClassPath {
 	private void scanZip(Path zipRoot) {
 		try {
 			long start = System.nanoTime();
+			List<String> scanned = new ArrayList<>();
 			Files.walkFileTree(zipRoot, new SimpleFileVisitor<Path>() {
 
 				// A previous version of this code used Path.relativize to construct the output paths
@@ -191,6 +208,7 @@ public class QuiltClassPath {
 						stack.addLast("/");
 					}
 					foldersRead++;
+					scanned.add(dir.toString());
 					putQuickFile(dir.toString(), dir);
 					return FileVisitResult.CONTINUE;
 				}
@@ -214,6 +232,7 @@ public class QuiltClassPath {
 					}
 					filesRead++;
 					relativeString.append(file.getFileName().toString());
+					scanned.add(relativeString.toString());
 					putQuickFile(relativeString.toString(), file);
 					return FileVisitResult.CONTINUE;
 				}
@@ -221,6 +240,7 @@ public class QuiltClassPath {
 			roots.remove(zipRoot);
 			long end = System.nanoTime();
 			Log.info(LogCategory.GENERAL, "Took " + (end - start) / 1000 + "us to scan " + zipRoot);
+			QuiltClassPathSnapshot.store(zipRoot, scanned);
 		} catch (IOException e) {
 			Log.warn(LogCategory.GENERAL, "Failed to scan " + zipRoot + "!", e);
 		}
@@ -265,23 +285,13 @@ public class QuiltClassPath {
 		if (printFullDetail) {
 			Log.warn(LogCategory.GENERAL, "quickFindResource(" + path + ")");
 		}
-		Path quick = files.get(absolutePath);
+		Path quick = files.getFirst(absolutePath);
 
 		if (printFullDetail) {
-			Log.warn(LogCategory.GENERAL, "- files.get(" + absolutePath + ") -> " + describePath(quick));
-		}
-
-		if (quick instanceof HashCollisionPath) {
-			quick = ((HashCollisionPath) quick).get(absolutePath);
-			if (printFullDetail) {
-				Log.warn(LogCategory.GENERAL, "- after hash collisiion -> " + describePath(quick));
-			}
+			Log.warn(LogCategory.GENERAL, "- files.getFirst(" + absolutePath + ") -> " + describePath(quick));
 		}
 
 		if (quick != null) {
-			if (quick instanceof OverlappingPath) {
-				return ((OverlappingPath) quick).getFirst();
-			}
 			return quick;
 		}
 
@@ -335,20 +345,8 @@ public class QuiltClassPath {
 			absolutePath = "/" + path;
 		}
 
-		Path quick = files.get(absolutePath);
-
-		if (quick instanceof HashCollisionPath) {
-			quick = ((HashCollisionPath) quick).get(absolutePath);
-		}
-
 		List<Path> paths = new ArrayList<>();
-		if (quick != null) {
-			if (quick instanceof OverlappingPath) {
-				Collections.addAll(paths, ((OverlappingPath) quick).paths);
-			} else {
-				paths.add(quick);
-			}
-		}
+		files.getAll(absolutePath, paths);
 
 		getResourcesIn(roots, path, paths);
 		return Collections.unmodifiableList(paths);
@@ -451,12 +449,36 @@ public class QuiltClassPath {
 			return result;
 		}
 
+		/** @return The first path added for the given key, or null if none were added. */
+		Path getFirst(String key) {
+			Path result = get(key);
+			if (result instanceof OverlappingPath) {
+				return ((OverlappingPath) result).getFirst();
+			}
+			return result;
+		}
+
+		/** Adds every path added for the given key to the given list, in the order they were added. */
+		void getAll(String key, List<Path> dst) {
+			Path result = get(key);
+			if (result instanceof OverlappingPath) {
+				Collections.addAll(dst, ((OverlappingPath) result).paths);
+			} else if (result != null) {
+				dst.add(result);
+			}
+		}
+
 		abstract Path get0(String key);
 
 		abstract void ensureCapacityFor(int newPathCount);
 
 		abstract void put(Path newPath);
 
+		/** Adds a path which is only resolved against the given root once it's requested. */
+		void put(Path root, String path) {
+			put(root.resolve(path));
+		}
+
 		protected Path computeNewPath(Path current, Path file) {
 			if (current == null) {
 				return file;
@@ -524,86 +546,272 @@ public class QuiltClassPath {
 		}
 	}
 
+	/** An open addressing table which only stores primitive arrays, alongside the path (or the string of a path) for
+	 * each entry in the order they were added. Hash collisions simply take up more slots, so no wrapper objects are
+	 * needed, and paths added as strings are only resolved when a lookup finds them. Paths equal to an existing entry
+	 * (like the "/" and "/META-INF/MANIFEST.MF" of every root) don't take up a slot, and are instead chained after the
+	 * first entry, so they don't create long probe sequences. Lookups don't lock. */
 	@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
-	static final class HashTableFileMap extends FileMap {
+	static final class CompactFileMap extends FileMap {
 		static final double FILL_PERCENT = 0.75;
-		Path[] table = new Path[128];
-		int entryCount;
 
-		public HashTableFileMap() {}
+		private volatile Table table = new Table(128);
+		private volatile Entries entries = new Entries(96);
+		private volatile Path[] roots = new Path[0];
+		private final Map<Path, Integer> rootIndices = new IdentityHashMap<>();
+		private int entryCount;
+		/** The number of entries in {@link #table}, which excludes chained entries. */
+		private int slotCount;
+
+		static final class Table {
+			/** The {@link String#hashCode()} of the path in each slot. */
+			final int[] hashes;
+			/** The index of the entry in each slot, plus one. 0 is an empty slot. */
+			final int[] refs;
+
+			Table(int size) {
+				hashes = new int[size];
+				refs = new int[size];
+			}
+
+			void insert(int hash, int entry) {
+				int mask = refs.length - 1;
+				int slot = hash & mask;
+				while (refs[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = hash;
+				refs[slot] = entry + 1;
+			}
+		}
+
+		static final class Entries {
+			static final byte FLAG_CHAINED = 1;
+			static final byte FLAG_HAS_WARNED = 2;
+
+			final int[] hashes;
+			/** The index of the root (in {@link CompactFileMap#roots}) for string paths, or -1 for real paths. */
+			final int[] roots;
+			/** Either a {@link Path} or a {@link String}. */
+			final Object[] values;
+			/** The index of the next entry with an equal path, plus one. 0 is the end of the chain. */
+			final int[] next;
+			final byte[] flags;
+
+			Entries(int size) {
+				hashes = new int[size];
+				roots = new int[size];
+				values = new Object[size];
+				next = new int[size];
+				flags = new byte[size];
+			}
+
+			Entries copy(int size) {
+				Entries copy = new Entries(size);
+				System.arraycopy(hashes, 0, copy.hashes, 0, hashes.length);
+				System.arraycopy(roots, 0, copy.roots, 0, roots.length);
+				System.arraycopy(values, 0, copy.values, 0, values.length);
+				System.arraycopy(next, 0, copy.next, 0, next.length);
+				System.arraycopy(flags, 0, copy.flags, 0, flags.length);
+				return copy;
+			}
+		}
+
+		public CompactFileMap() {}
 
 		@Override
 		Path get0(String key) {
-			Path[] tbl = table;
-			// Stored in a variable for thread safety
+			return getFirst(key);
+		}
+
+		@Override
+		Path getFirst(String key) {
+			int entry = find(key);
+			if (entry < 0) {
+				return null;
+			}
+			Entries e = entries;
+			Path path = resolve(e, entry);
+			if (e.next[entry] != 0 && (e.flags[entry] & Entries.FLAG_HAS_WARNED) == 0) {
+				e.flags[entry] |= Entries.FLAG_HAS_WARNED;
+				List<Path> all = new ArrayList<>();
+				getAll(key, all);
+				warnMultiplePaths(all.toArray(new Path[0]));
+			}
+			return path;
+		}
+
+		@Override
+		void getAll(String key, List<Path> dst) {
+			int entry = find(key);
+			if (entry < 0) {
+				return;
+			}
+			Entries e = entries;
+			while (true) {
+				Path path = resolve(e, entry);
+				if (path != null) {
+					dst.add(path);
+				}
+				int next = e.next[entry];
+				if (next == 0) {
+					return;
+				}
+				entry = next - 1;
+			}
+		}
+
+		/** @return The index of the first entry added for the given key, or -1 if there isn't one. */
+		private int find(String key) {
+			Table tbl = table;
+			Entries e = entries;
 			int hash = key.hashCode();
-			int index = hash & tbl.length - 1;
+			int mask = tbl.refs.length - 1;
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				int ref = tbl.refs[slot];
+				if (ref == 0) {
+					return -1;
+				}
+				if (tbl.hashes[slot] == hash) {
+					int entry = ref - 1;
+					if (entry < e.values.length && isEqual(e.values[entry], key)) {
+						return entry;
+					}
+				}
+			}
+		}
 
-			if (printFullDetail) {
-				Log.warn(LogCategory.GENERAL, "- hash(" + key + ") = " + hash + "; index = " + index + " in Path[" + tbl.length + "]");
+		private Path resolve(Entries e, int entry) {
+			if (entry >= e.values.length) {
+				return null;
+			}
+			Object value = e.values[entry];
+			if (value instanceof String) {
+				return roots[e.roots[entry]].resolve((String) value);
 			}
+			// Null if it's not fully added yet
+			return (Path) value;
+		}
 
-			return tbl[index];
+		private static boolean isEqual(Object value, String key) {
+			if (value instanceof String) {
+				return key.equals(value);
+			} else if (value != null) {
+				return QuiltClassPath.isEqual(key, (Path) value);
+			}
+			// Not fully added yet
+			return false;
+		}
+
+		private static boolean isEqual(Object value, Object other) {
+			if (other instanceof String) {
+				return isEqual(value, (String) other);
+			} else if (value instanceof String) {
+				return isEqual(other, (String) value);
+			} else {
+				return isEqualPath((Path) value, (Path) other);
+			}
 		}
 
 		@Override
 		synchronized void ensureCapacityFor(int newPathCount) {
 			int result = entryCount + newPathCount;
-			int newSize = table.length;
-			while (newSize * FILL_PERCENT <= result) {
+			if (entries.values.length < result) {
+				entries = entries.copy(result);
+			}
+			int newSize = table.refs.length;
+			while (newSize * FILL_PERCENT <= slotCount + newPathCount) {
 				newSize *= 2;
 			}
-			if (newSize != table.length) {
+			if (newSize != table.refs.length) {
 				rehash(newSize);
 			}
 		}
 
 		@Override
 		synchronized void put(Path newPath) {
-			entryCount++;
-			if (table.length * FILL_PERCENT < entryCount) {
-				rehash(table.length * 2);
-			}
-			int index = hashCode(newPath) & table.length - 1;
-			table[index] = computeNewPath(table[index], newPath);
+			add(hashCode(newPath), -1, newPath);
 		}
 
-		private static int hashCode(Path path) {
-			if (path instanceof QuiltBasePath) {
-				return ((QuiltBasePath<?, ?>) path).toStringHashCode();
+		@Override
+		synchronized void put(Path root, String path) {
+			Integer index = rootIndices.get(root);
+			if (index == null) {
+				index = roots.length;
+				Path[] newRoots = Arrays.copyOf(roots, index + 1);
+				newRoots[index] = root;
+				roots = newRoots;
+				rootIndices.put(root, index);
+			}
+			add(path.hashCode(), index, path);
+		}
+
+		private void add(int hash, int root, Object value) {
+			int entry = entryCount;
+			Entries e = entries;
+			if (entry == e.values.length) {
+				entries = e = e.copy(e.values.length * 2);
+			}
+			int first = findEqual(hash, value);
+			e.hashes[entry] = hash;
+			e.roots[entry] = root;
+
+			if (first >= 0) {
+				// Chain it after the last equal entry, rather than taking up another slot
+				int last = first;
+				while (e.next[last] != 0) {
+					last = e.next[last] - 1;
+				}
+				e.flags[entry] = Entries.FLAG_CHAINED;
+				e.values[entry] = value;
+				e.next[last] = entry + 1;
+				e.flags[first] &= ~Entries.FLAG_HAS_WARNED;
+				entryCount++;
+				return;
 			}
-			return path.toString().hashCode();
-		}
 
-		private void rehash(int newSize) {
-			Path[] oldTable = table;
-			table = new Path[newSize];
-			Path[] array1 = { null };
-			Path[] subIter = null;
-			for (Path sub : oldTable) {
-				if (sub == null) {
-					continue;
+			e.values[entry] = value;
+			if (table.refs.length * FILL_PERCENT < slotCount + 1) {
+				rehash(table.refs.length * 2);
+			}
+			table.insert(hash, entry);
+			entryCount++;
+			slotCount++;
+		}
+
+		/** @return The index of the first entry equal to the given path, or -1 if there isn't one. */
+		private int findEqual(int hash, Object value) {
+			Table tbl = table;
+			Entries e = entries;
+			int mask = tbl.refs.length - 1;
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				int ref = tbl.refs[slot];
+				if (ref == 0) {
+					return -1;
 				}
-
-				if (sub instanceof HashCollisionPath) {
-					HashCollisionPath collision = (HashCollisionPath) sub;
-					subIter = collision.values;
-				} else {
-					array1[0] = sub;
-					subIter = array1;
+				if (tbl.hashes[slot] == hash && isEqual(e.values[ref - 1], value)) {
+					return ref - 1;
 				}
+			}
+		}
 
-				for (Path sub2 : subIter) {
-					final Path hashPath;
-					if (sub2 instanceof OverlappingPath) {
-						hashPath = ((OverlappingPath) sub2).paths[0];
-					} else {
-						hashPath = sub2;
-					}
-					int index = hashCode(hashPath) & table.length - 1;
-					table[index] = computeNewPath(table[index], sub2);
+		private void rehash(int newSize) {
+			Table newTable = new Table(newSize);
+			Entries e = entries;
+			// Insert in the original order, so colliding paths are found in the same order
+			for (int i = 0; i < entryCount; i++) {
+				if ((e.flags[i] & Entries.FLAG_CHAINED) == 0) {
+					newTable.insert(e.hashes[i], i);
 				}
 			}
+			table = newTable;
+		}
+
+		private static int hashCode(Path path) {
+			if (path instanceof QuiltBasePath) {
+				return ((QuiltBasePath<?, ?>) path).toStringHashCode();
+			}
+			return path.toString().hashCode();
 		}
 	}
 
@@ -708,30 +916,34 @@ public class QuiltClassPath {
 		public Path getFirst() {
 			if ((data & ~FLAG_HAS_WARNED) != 0) {
 				data |= FLAG_HAS_WARNED;
-				String exposedName = paths[0].toString();
-				StringBuilder sb = new StringBuilder();
-				sb.append("Multiple paths added for '");
-				sb.append(exposedName);
-				sb.append("', but only a single one can be returned!");
-				if ("/".equals(exposedName)) {
-					// Since every entry on the classpath contains a root folder
-					// it's not useful to log every classpath entry.
-					// So instead we'll log the current stacktrace.
-					StringWriter writer = new StringWriter();
-					new Throwable("Overlapping Path Caller").printStackTrace(new PrintWriter(writer));
-					sb.append("\n");
-					sb.append(writer.toString());
-				} else {
-					for (Path path : paths) {
-						sb.append("\n - ");
-						sb.append(path.getFileSystem());
-						sb.append(" ");
-						sb.append(path);
-					}
-				}
-				Log.warn(LogCategory.GENERAL, sb.toString());
+				warnMultiplePaths(paths);
 			}
 			return paths[0];
 		}
 	}
+
+	private static void warnMultiplePaths(Path[] paths) {
+		String exposedName = paths[0].toString();
+		StringBuilder sb = new StringBuilder();
+		sb.append("Multiple paths added for '");
+		sb.append(exposedName);
+		sb.append("', but only a single one can be returned!");
+		if ("/".equals(exposedName)) {
+			// Since every entry on the classpath contains a root folder
+			// it's not useful to log every classpath entry.
+			// So instead we'll log the current stacktrace.
+			StringWriter writer = new StringWriter();
+			new Throwable("Overlapping Path Caller").printStackTrace(new PrintWriter(writer));
+			sb.append("\n");
+			sb.append(writer.toString());
+		} else {
+			for (Path path : paths) {
+				sb.append("\n - ");
+				sb.append(path.getFileSystem());
+				sb.append(" ");
+				sb.append(path);
+			}
+		}
+		Log.warn(LogCategory.GENERAL, sb.toString());
+	}
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.impl.util.HashUtil;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Stores the list of paths found by {@link QuiltClassPath} when it scans a "jar" file system root, so the next launch
+ * can fill the index immediately rather than walking the whole zip again. Snapshots are keyed by the absolute path,
+ * size, last modified time, and a checksum of the central directory of the jar file. Snapshots of jar files which no
+ * longer exist are deleted in the background when the folder is set. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class QuiltClassPathSnapshot {
+
+	private static final int VERSION = 2;
+	private static final boolean DISABLED = Boolean.getBoolean(SystemProperties.DISABLE_QUILT_CLASS_PATH_SNAPSHOT);
+
+	private static volatile Path folder;
+
+	private QuiltClassPathSnapshot() {}
+
+	static void setFolder(Path folder) {
+		QuiltClassPathSnapshot.folder = folder;
+
+		if (!DISABLED) {
+			Thread pruner = new Thread(() -> prune(folder), "QuiltLoader Class Path Snapshot Pruner");
+			pruner.setDaemon(true);
+			pruner.setPriority(Thread.MIN_PRIORITY);
+			pruner.start();
+		}
+	}
+
+	/** Deletes every snapshot whose jar file no longer exists, or which can't be read by this version. */
+	private static void prune(Path folder) {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.bin")) {
+			for (Path file : stream) {
+				boolean keep;
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+					keep = in.readInt() == VERSION && Files.exists(Paths.get(in.readUTF()));
+				} catch (IOException | IllegalArgumentException e) {
+					keep = false;
+				}
+
+				if (!keep) {
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// Nothing was stored
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to prune the class path snapshots in " + folder, e);
+		}
+	}
+
+	/** @return The paths (as strings) stored for the given root, or null if the root has changed or was never
+	 *         stored. */
+	@Nullable
+	static List<String> load(Path root) {
+		Path jar = getJarFile(root);
+		String identity = getIdentity(jar);
+		if (identity == null) {
+			return null;
+		}
+		Path file = getSnapshotFile(jar);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != VERSION || !jar.toString().equals(in.readUTF()) || !identity.equals(in.readUTF())) {
+				return null;
+			}
+			int count = in.readInt();
+			List<String> paths = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				paths.add(in.readUTF());
+			}
+			return paths;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to read the class path snapshot " + file, e);
+			return null;
+		}
+	}
+
+	static void store(Path root, List<String> paths) {
+		Path jar = getJarFile(root);
+		String identity = getIdentity(jar);
+		if (identity == null) {
+			return;
+		}
+		Path file = getSnapshotFile(jar);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			try (OutputStream stream = Files.newOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+				out.writeInt(VERSION);
+				out.writeUTF(jar.toString());
+				out.writeUTF(identity);
+				out.writeInt(paths.size());
+				for (String path : paths) {
+					out.writeUTF(path);
+				}
+				out.flush();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to write the class path snapshot " + file, e);
+		}
+	}
+
+	private static Path getSnapshotFile(Path jar) {
+		return folder.resolve(HashUtil.hashToString(HashUtil.computeHash(jar.toString())) + ".bin");
+	}
+
+	/** @return A string which changes whenever the given jar file changes, or null if snapshots can't be used for
+	 *         it. */
+	@Nullable
+	private static String getIdentity(@Nullable Path jar) {
+		if (DISABLED || folder == null || jar == null) {
+			return null;
+		}
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(jar, BasicFileAttributes.class);
+			long checksum;
+			try (SeekableByteChannel channel = Files.newByteChannel(jar)) {
+				checksum = QuiltZipCentralDirectoryReader.checksumCentralDirectory(channel);
+			}
+			if (checksum < 0) {
+				return null;
+			}
+			return jar + " " + attrs.size() + " " + attrs.lastModifiedTime().toMillis() + " " + checksum;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/** @return The jar file on the default file system which the given root is the root of, or null if it isn't. */
+	@Nullable
+	private static Path getJarFile(Path root) {
+		if (!"/".equals(root.toString())) {
+			// Only whole zips are scanned with consistent path strings
+			return null;
+		}
+		String uri = root.toUri().getRawSchemeSpecificPart();
+		int separator = uri.indexOf("!/");
+		if (separator < 0) {
+			return null;
+		}
+		try {
+			URI jarUri = new URI(uri.substring(0, separator));
+			if (!"file".equals(jarUri.getScheme())) {
+				return null;
+			}
+			return Paths.get(jarUri).toAbsolutePath();
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
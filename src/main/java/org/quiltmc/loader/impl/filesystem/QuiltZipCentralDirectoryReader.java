@@ -0,0 +1,271 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+
+/** Reads the entries of a zip file from its central directory, rather than by reading every local header in the file.
+ * This only needs to read the end of the file, regardless of how large the entries are. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class QuiltZipCentralDirectoryReader {
+
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+	private static final int CENTRAL_FILE_HEADER_SIZE = 46;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+
+	static final int LOCAL_FILE_HEADER = 0x04034b50;
+	static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+	private static final long MAX_COMMENT_LENGTH = 0xFFFF;
+
+	private QuiltZipCentralDirectoryReader() {}
+
+	static final class Entry {
+		final String name;
+		final int method;
+		final long compressedSize;
+		final long uncompressedSize;
+		/** The absolute position of the local file header in the file, not the position of the data. */
+		final long localHeaderOffset;
+
+		Entry(String name, int method, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.uncompressedSize = uncompressedSize;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	/** @return A CRC32 of the central directory, which changes whenever the name, CRC, size, or position of any entry
+	 *         changes, or -1 if the central directory couldn't be found. */
+	static long checksumCentralDirectory(SeekableByteChannel channel) throws IOException {
+		CentralDirectory location = locate(channel);
+		if (location == null) {
+			return -1;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(read(channel, location.start, location.size).array(), 0, location.size);
+		return crc.getValue();
+	}
+
+	/** @return The position of the central directory, or null if the end of central directory record couldn't be found
+	 *         or the zip spans multiple disks. */
+	@Nullable
+	private static CentralDirectory locate(SeekableByteChannel channel) throws IOException {
+		long fileSize = channel.size();
+		if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+			return null;
+		}
+
+		int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+		long tailStart = fileSize - tailLength;
+		ByteBuffer tail = read(channel, tailStart, tailLength);
+
+		int eocd = -1;
+		for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+				int commentLength = Short.toUnsignedInt(tail.getShort(i + 20));
+				if (i + END_OF_CENTRAL_DIRECTORY_SIZE + commentLength <= tailLength) {
+					eocd = i;
+					break;
+				}
+			}
+		}
+
+		if (eocd < 0) {
+			return null;
+		}
+
+		long eocdPosition = tailStart + eocd;
+		int disk = Short.toUnsignedInt(tail.getShort(eocd + 4));
+		int centralDirectoryDisk = Short.toUnsignedInt(tail.getShort(eocd + 6));
+		long centralDirectorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+		long centralDirectoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+		// The central directory ends where the (zip64) end of central directory record starts
+		long centralDirectoryEnd = eocdPosition;
+
+		// Zip64 is used if any value overflowed, which includes the entry count, so always check for it
+		long locatorPosition = eocdPosition - ZIP64_LOCATOR_SIZE;
+		ByteBuffer locator = locatorPosition < 0 ? null : read(channel, locatorPosition, ZIP64_LOCATOR_SIZE);
+		if (locator != null && locator.getInt(0) == ZIP64_LOCATOR) {
+			// The record normally comes directly before the locator, but use the stated position otherwise
+			long recordPosition = locatorPosition - ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE;
+			ByteBuffer record = recordPosition < 0 ? null : read(channel, recordPosition, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+			if (record == null || record.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+				recordPosition = locator.getLong(8);
+				if (recordPosition < 0 || recordPosition + ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > fileSize) {
+					return null;
+				}
+				record = read(channel, recordPosition, ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+				if (record.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+					return null;
+				}
+			}
+			disk = record.getInt(16);
+			centralDirectoryDisk = record.getInt(20);
+			centralDirectorySize = record.getLong(40);
+			centralDirectoryOffset = record.getLong(48);
+			centralDirectoryEnd = recordPosition;
+		}
+
+		if (disk != 0 || centralDirectoryDisk != 0) {
+			return null;
+		}
+
+		long centralDirectoryStart = centralDirectoryEnd - centralDirectorySize;
+		// Some zips have extra data before them (for example self-extracting archives), which offsets everything
+		long prefix = centralDirectoryStart - centralDirectoryOffset;
+		if (centralDirectoryStart < 0 || prefix < 0 || centralDirectorySize > Integer.MAX_VALUE) {
+			return null;
+		}
+
+		return new CentralDirectory(centralDirectoryStart, (int) centralDirectorySize, prefix);
+	}
+
+	/** @return Every entry in the central directory, or null if the end of central directory record couldn't be found
+	 *         or the zip spans multiple disks. (In which case the caller should fall back to reading the file
+	 *         sequentially). */
+	@Nullable
+	static List<Entry> read(SeekableByteChannel channel) throws IOException {
+		CentralDirectory location = locate(channel);
+		if (location == null) {
+			return null;
+		}
+
+		long centralDirectoryStart = location.start;
+		int centralDirectorySize = location.size;
+		long prefix = location.prefix;
+
+		ByteBuffer directory = read(channel, centralDirectoryStart, centralDirectorySize);
+		List<Entry> entries = new ArrayList<>();
+		int position = 0;
+		// The entry count isn't used since it wraps around in zips with too many entries that don't use zip64
+		while (position + CENTRAL_FILE_HEADER_SIZE <= centralDirectorySize) {
+			if (directory.getInt(position) != CENTRAL_FILE_HEADER) {
+				throw new IOException("Bad central directory header at " + (centralDirectoryStart + position));
+			}
+			int method = Short.toUnsignedInt(directory.getShort(position + 10));
+			long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+			long uncompressedSize = Integer.toUnsignedLong(directory.getInt(position + 24));
+			int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+			int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+			int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+			long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+			int nameStart = position + CENTRAL_FILE_HEADER_SIZE;
+			int extraStart = nameStart + nameLength;
+			int next = extraStart + extraLength + commentLength;
+			if (next > centralDirectorySize) {
+				throw new IOException("Truncated central directory entry at " + (centralDirectoryStart + position));
+			}
+
+			byte[] nameBytes = new byte[nameLength];
+			for (int i = 0; i < nameLength; i++) {
+				nameBytes[i] = directory.get(nameStart + i);
+			}
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+			if (uncompressedSize == 0xFFFF_FFFFL || compressedSize == 0xFFFF_FFFFL || localHeaderOffset == 0xFFFF_FFFFL) {
+				int extra = extraStart;
+				int extraEnd = extraStart + extraLength;
+				while (extra + 4 <= extraEnd) {
+					int id = Short.toUnsignedInt(directory.getShort(extra));
+					int size = Short.toUnsignedInt(directory.getShort(extra + 2));
+					if (id == ZIP64_EXTRA_ID) {
+						// Only the values which overflowed are present, in this order
+						int field = extra + 4;
+						if (uncompressedSize == 0xFFFF_FFFFL) {
+							uncompressedSize = directory.getLong(field);
+							field += 8;
+						}
+						if (compressedSize == 0xFFFF_FFFFL) {
+							compressedSize = directory.getLong(field);
+							field += 8;
+						}
+						if (localHeaderOffset == 0xFFFF_FFFFL) {
+							localHeaderOffset = directory.getLong(field);
+						}
+						break;
+					}
+					extra += 4 + size;
+				}
+			}
+
+			entries.add(new Entry(name, method, compressedSize, uncompressedSize, prefix + localHeaderOffset));
+			position = next;
+		}
+
+		return entries;
+	}
+
+	/** Reads the local file header at the given position.
+	 *
+	 * @return The position of the data of the entry. */
+	static long readDataOffset(SeekableByteChannel channel, long localHeaderOffset) throws IOException {
+		ByteBuffer header = read(channel, localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_FILE_HEADER) {
+			throw new IOException("Bad local file header at " + localHeaderOffset);
+		}
+		int nameLength = Short.toUnsignedInt(header.getShort(26));
+		int extraLength = Short.toUnsignedInt(header.getShort(28));
+		return localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	private static final class CentralDirectory {
+		final long start;
+		final int size;
+		/** The length of any extra data before the zip, which offsets every position stored in it. */
+		final long prefix;
+
+		CentralDirectory(long start, int size, long prefix) {
+			this.start = start;
+			this.size = size;
+			this.prefix = prefix;
+		}
+	}
+
+	private static ByteBuffer read(SeekableByteChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		channel.position(position);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Unexpected end of file at " + channel.position() + " while reading " + length + " bytes from " + position);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
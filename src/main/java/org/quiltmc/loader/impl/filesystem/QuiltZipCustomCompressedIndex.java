@@ -0,0 +1,172 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+
+/** The directory of a "quiltmczipcmpv3" file, read directly from the (ideally memory mapped) bytes of the file.
+ * Nothing is decoded up-front, so opening a file is constant time, and each lookup is a hash table probe.
+ * <p>
+ * Layout (all big endian):
+ * <ol>
+ * <li>int: entry count</li>
+ * <li>int: table size (a power of two)</li>
+ * <li>int[table size]: open addressed hash table, containing the entry index plus one (or 0 for an empty slot)</li>
+ * <li>{@link #RECORD_SIZE} bytes per entry:
+ * <ul>
+ * <li>int: {@link String#hashCode()} of the full path</li>
+ * <li>int, int: the offset (into the name section) and length of the UTF-8 full path</li>
+ * <li>for files: long offset of the deflated data, int compressed size, int uncompressed size, int CRC-32</li>
+ * <li>for folders: int first child index, int child count, int -1, int 0, int 0</li>
+ * </ul>
+ * </li>
+ * <li>The names of every entry.</li>
+ * </ol>
+ * Entry 0 is always the root folder, and the children of every folder have contiguous indices, sorted by name. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class QuiltZipCustomCompressedIndex {
+
+	static final int RECORD_SIZE = 32;
+
+	private final ByteBuffer buffer;
+	final int entryCount;
+	private final int tableSize;
+	private final int recordStart;
+	private final int nameStart;
+
+	QuiltZipCustomCompressedIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.limit() < 8) {
+			throw new IOException("Directory too short!");
+		}
+		entryCount = buffer.getInt(0);
+		tableSize = buffer.getInt(4);
+		if (entryCount < 1 || tableSize < entryCount || Integer.bitCount(tableSize) != 1) {
+			throw new IOException("Bad directory (" + entryCount + " entries, " + tableSize + " slots)");
+		}
+		recordStart = 8 + tableSize * 4;
+		nameStart = recordStart + entryCount * RECORD_SIZE;
+		if (nameStart > buffer.limit()) {
+			throw new IOException("Directory too short!");
+		}
+	}
+
+	/** @return The hash table size to use for the given number of entries, which keeps the table at most half full. */
+	static int tableSize(int entryCount) {
+		return Integer.highestOneBit(Math.max(1, entryCount) * 2 - 1) * 2;
+	}
+
+	/** @return The index of the entry with the given full path, or -1 if there isn't one. */
+	int find(String path) {
+		int hash = path.hashCode();
+		byte[] bytes = null;
+		int slot = hash & (tableSize - 1);
+		while (true) {
+			int index = buffer.getInt(8 + slot * 4) - 1;
+			if (index < 0) {
+				return -1;
+			}
+			int record = recordStart + index * RECORD_SIZE;
+			if (buffer.getInt(record) == hash) {
+				if (bytes == null) {
+					bytes = path.getBytes(StandardCharsets.UTF_8);
+				}
+				if (nameEquals(record, bytes)) {
+					return index;
+				}
+			}
+			slot = (slot + 1) & (tableSize - 1);
+		}
+	}
+
+	private boolean nameEquals(int record, byte[] bytes) {
+		int length = buffer.getInt(record + 8);
+		if (length != bytes.length) {
+			return false;
+		}
+		int offset = nameStart + buffer.getInt(record + 4);
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	String getName(int index) {
+		int record = recordStart + index * RECORD_SIZE;
+		int length = buffer.getInt(record + 8);
+		byte[] bytes = new byte[length];
+		int offset = nameStart + buffer.getInt(record + 4);
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	boolean isFolder(int index) {
+		return buffer.getInt(recordStart + index * RECORD_SIZE + 20) < 0;
+	}
+
+	int getFirstChild(int index) {
+		return buffer.getInt(recordStart + index * RECORD_SIZE + 12);
+	}
+
+	int getChildCount(int index) {
+		return buffer.getInt(recordStart + index * RECORD_SIZE + 16);
+	}
+
+	long getOffset(int index) {
+		return buffer.getLong(recordStart + index * RECORD_SIZE + 12);
+	}
+
+	int getCompressedSize(int index) {
+		return buffer.getInt(recordStart + index * RECORD_SIZE + 20);
+	}
+
+	int getUncompressedSize(int index) {
+		return buffer.getInt(recordStart + index * RECORD_SIZE + 24);
+	}
+
+	int getCrc(int index) {
+		return buffer.getInt(recordStart + index * RECORD_SIZE + 28);
+	}
+
+	/** @return Every full path which is either the given folder, or inside it, relative to that folder. */
+	List<String> listPaths(String folder) {
+		List<String> paths = new ArrayList<>();
+		String prefix = "/".equals(folder) ? "" : folder;
+		for (int i = 0; i < entryCount; i++) {
+			String name = getName(i);
+			if (prefix.isEmpty()) {
+				paths.add(name);
+			} else if (name.equals(prefix)) {
+				paths.add("/");
+			} else if (name.startsWith(prefix) && name.charAt(prefix.length()) == '/') {
+				paths.add(name.substring(prefix.length()));
+			}
+		}
+		return paths;
+	}
+}
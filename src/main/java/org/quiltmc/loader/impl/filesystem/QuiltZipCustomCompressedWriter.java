@@ -33,16 +33,22 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.Nullable;
 
 import org.quiltmc.loader.impl.util.ExposedByteArrayOutputStream;
 
@@ -51,27 +57,44 @@ import org.quiltmc.loader.impl.util.ExposedByteArrayOutputStream;
 final class QuiltZipCustomCompressedWriter {
 
 	static final Charset UTF8 = StandardCharsets.UTF_8;
-	static final byte[] HEADER = "quiltmczipcmpv2".getBytes(UTF8);
+	static final byte[] HEADER = "quiltmczipcmpv3".getBytes(UTF8);
+	/** The previous format, which used 32 bit offsets and a single GZIP'd tree for the directory. This is still read,
+	 * but never written. */
+	static final byte[] HEADER_V2 = "quiltmczipcmpv2".getBytes(UTF8);
 	static final byte[] PARTIAL_HEADER = Arrays.copyOf("PARTIAL!PARTIAL!PARTIAL!".getBytes(UTF8), HEADER.length);
 
+	/** The maximum number of compressed bytes which can wait for an earlier file to be written. Compressor threads block
+	 * once this is reached, so a single slow file can't make the others buffer the entire output in memory. */
+	private static final long MAX_PENDING_BYTES = 32 << 20;
+
 	private static final AtomicInteger WRITER_THREAD_INDEX = new AtomicInteger();
-	private static final StopThreadsPath THREAD_STOPPER = new StopThreadsPath();
+	private static final SourceFile THREAD_STOPPER = new SourceFile(null, -1);
 
 	final Path src, dst;
-	final LinkedBlockingQueue<Path> sourceFiles = new LinkedBlockingQueue<>();
+	@Nullable
+	final ToIntFunction<String> order;
+	final LinkedBlockingQueue<SourceFile> sourceFiles = new LinkedBlockingQueue<>();
 	final Map<Path, FileEntry> files = new ConcurrentHashMap<>();
-	final AtomicInteger currentOffset = new AtomicInteger();
+
+	/** Files which have been compressed, but not written since a file before them is still being compressed. Guarded
+	 * by itself, along with {@link #nextWriteIndex}, {@link #currentOffset}, and {@link #pendingBytes}. */
+	final Map<Integer, CompressedFile> compressedFiles = new HashMap<>();
+	int nextWriteIndex;
+	long currentOffset;
+	/** The total size of every file in {@link #compressedFiles}. */
+	long pendingBytes;
 
 	volatile boolean interrupted;
 	volatile boolean aborted = false;
 	volatile Exception exception;
 
-	QuiltZipCustomCompressedWriter(Path src, Path dst) {
+	QuiltZipCustomCompressedWriter(Path src, Path dst, @Nullable ToIntFunction<String> order) {
 		this.src = src;
 		this.dst = dst;
+		this.order = order;
 	}
 
-	/** @see QuiltZipFileSystem#writeQuiltCompressedFileSystem(Path, Path) */
+	/** @see QuiltZipFileSystem#writeQuiltCompressedFileSystem(Path, Path, ToIntFunction) */
 	void write() throws IOException {
 		try (FileChannel channel = FileChannel.open(dst, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
 			write0(channel);
@@ -86,16 +109,18 @@ final class QuiltZipCustomCompressedWriter {
 		// 1: Find all folders and files
 		// 2: Pass each file on to a queue of files to be processed
 		// 3: On threads compress those files into a set of byte arrays
-		// 4: Write the directory entry list using those compressed files
-		// 5: Append the byte arrays to the output file directly, in the right order
+		// 4: Append the byte arrays to the output file directly, in the order the files were queued in
+		// 5: Write the directory entry list using those compressed files
+		// (See QuiltZipCustomCompressedIndex for the layout of the directory)
 
 		// Spin up the other threads now
 		int mainIndex = WRITER_THREAD_INDEX.incrementAndGet();
 
 		channel.write(ByteBuffer.wrap(PARTIAL_HEADER));
-		// 4 bytes: Directory pointer
-		channel.write(ByteBuffer.allocate(4));
-		currentOffset.set((int) channel.position());
+		// 8 bytes: Directory pointer
+		// 4 bytes: Directory length
+		channel.write(ByteBuffer.allocate(12));
+		currentOffset = channel.position();
 
 		int threadCount = Runtime.getRuntime().availableProcessors();
 		WriterThread[] threads = new WriterThread[threadCount];
@@ -118,6 +143,8 @@ final class QuiltZipCustomCompressedWriter {
 		}
 
 		final Deque<Directory> stack = new ArrayDeque<>();
+		// Only used when ordering files, since every file needs to be found before the first can be queued
+		final List<Path> foundFiles = new ArrayList<>();
 
 		try {
 			Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
@@ -139,7 +166,10 @@ final class QuiltZipCustomCompressedWriter {
 						return FileVisitResult.TERMINATE;
 					}
 					stack.peek().childFiles.add(file);
-					sourceFiles.add(file);
+					if (order == null) {
+						sourceFiles.add(new SourceFile(file, foundFiles.size()));
+					}
+					foundFiles.add(file);
 					return FileVisitResult.CONTINUE;
 				}
 
@@ -162,6 +192,10 @@ final class QuiltZipCustomCompressedWriter {
 			}
 		}
 
+		if (order != null) {
+			queueOrderedFiles(foundFiles);
+		}
+
 		// Inform every thread that there are no more files left
 		for (int i = 0; i < threadCount; i++) {
 			sourceFiles.add(THREAD_STOPPER);
@@ -199,11 +233,11 @@ final class QuiltZipCustomCompressedWriter {
 		synchronized (QuiltZipCustomCompressedWriter.this) {
 			if (!sourceFiles.isEmpty()) {
 				StringBuilder sb = new StringBuilder();
-				Iterator<Path> iterator = sourceFiles.iterator();
+				Iterator<SourceFile> iterator = sourceFiles.iterator();
 				int count = 0;
 				while (iterator.hasNext()) {
 					count++;
-					Path next = iterator.next();
+					Path next = iterator.next().path;
 					if (count < 100) {
 						if (sb.length() == 0) {
 							sb.append(", ");
@@ -250,18 +284,22 @@ final class QuiltZipCustomCompressedWriter {
 			}
 		}
 
+		if (nextWriteIndex != foundFiles.size()) {
+			throw new IllegalStateException("Only wrote " + nextWriteIndex + " / " + foundFiles.size() + " files!");
+		}
+
 		// Write the directory
-		int directoryOffset = currentOffset.get();
+		long directoryOffset = currentOffset;
 		ExposedByteArrayOutputStream baos = new ExposedByteArrayOutputStream();
-		GZIPOutputStream gzip = new GZIPOutputStream(baos);
-		writeDirectory(stack.pop(), files, new DataOutputStream(gzip));
-		gzip.finish();
+		writeDirectory(stack.pop(), files, new DataOutputStream(baos));
+		int directoryLength = baos.size();
 		channel.write(baos.wrapIntoBuffer(), directoryOffset);
 
 		// Write the directory offset
 		baos = new ExposedByteArrayOutputStream();
 		DataOutputStream dos = new DataOutputStream(baos);
-		dos.writeInt(directoryOffset);
+		dos.writeLong(directoryOffset);
+		dos.writeInt(directoryLength);
 		channel.write(baos.wrapIntoBuffer(), HEADER.length);
 		channel.force(false);
 
@@ -269,26 +307,101 @@ final class QuiltZipCustomCompressedWriter {
 		channel.write(ByteBuffer.wrap(HEADER), 0);
 	}
 
-	private void writeDirectory(Directory directory, Map<Path, FileEntry> fileMap, DataOutputStream to)
+	/** Queues every file sorted by {@link #order}, keeping the walk order for files with the same rank. Files in the
+	 * same folder are found next to each other, so unranked files stay grouped by mod and package. */
+	private void queueOrderedFiles(List<Path> foundFiles) {
+		int count = foundFiles.size();
+		String separator = src.getFileSystem().getSeparator();
+		long[] sorted = new long[count];
+		for (int i = 0; i < count; i++) {
+			String name = src.relativize(foundFiles.get(i)).toString().replace(separator, "/");
+			sorted[i] = ((long) order.applyAsInt(name) << 32) | i;
+		}
+		Arrays.sort(sorted);
+		for (int i = 0; i < count; i++) {
+			sourceFiles.add(new SourceFile(foundFiles.get((int) sorted[i]), i));
+		}
+	}
+
+	private void writeDirectory(Directory root, Map<Path, FileEntry> fileMap, DataOutputStream to)
 		throws IOException {
-		// Some directories might have thousands of files, but it's not common
-		to.writeShort(directory.childFiles.size());
-		for (Path file : directory.childFiles) {
-			byte[] nameBytes = file.getFileName().toString().getBytes(UTF8);
-			to.writeByte(nameBytes.length);
-			to.write(nameBytes);
-			FileEntry entry = fileMap.get(file);
-			to.writeInt(entry.offset);
-			to.writeInt(entry.uncompressedLength);
-			to.writeInt(entry.compressedLength);
+
+		// Every child of a folder is given a contiguous range of indices, sorted by name
+		List<Object> order = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		order.add(root);
+		names.add("/");
+		int[] firstChild = new int[1];
+		for (int i = 0; i < order.size(); i++) {
+			Object value = order.get(i);
+			if (!(value instanceof Directory)) {
+				continue;
+			}
+			Directory directory = (Directory) value;
+			String prefix = i == 0 ? "/" : names.get(i) + "/";
+			Map<String, Object> children = new TreeMap<>();
+			for (Path file : directory.childFiles) {
+				children.put(file.getFileName().toString(), file);
+			}
+			for (Directory sub : directory.childDirectories) {
+				children.put(sub.folderName, sub);
+			}
+			if (firstChild.length <= i) {
+				firstChild = Arrays.copyOf(firstChild, Math.max(i + 1, firstChild.length * 2));
+			}
+			firstChild[i] = order.size();
+			for (Map.Entry<String, Object> child : children.entrySet()) {
+				order.add(child.getValue());
+				names.add(prefix + child.getKey());
+			}
 		}
-		to.writeShort(directory.childDirectories.size());
-		for (Directory sub : directory.childDirectories) {
-			byte[] nameBytes = sub.folderName.getBytes(UTF8);
-			to.writeByte(nameBytes.length);
-			to.write(nameBytes);
-			writeDirectory(sub, fileMap, to);
+
+		int count = order.size();
+		int tableSize = QuiltZipCustomCompressedIndex.tableSize(count);
+		int[] table = new int[tableSize];
+		ExposedByteArrayOutputStream nameBytes = new ExposedByteArrayOutputStream();
+		ExposedByteArrayOutputStream recordBytes = new ExposedByteArrayOutputStream();
+		DataOutputStream records = new DataOutputStream(recordBytes);
+
+		for (int i = 0; i < count; i++) {
+			String name = names.get(i);
+			int hash = name.hashCode();
+			int slot = hash & (tableSize - 1);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & (tableSize - 1);
+			}
+			table[slot] = i + 1;
+
+			byte[] bytes = name.getBytes(UTF8);
+			records.writeInt(hash);
+			records.writeInt(nameBytes.size());
+			records.writeInt(bytes.length);
+			nameBytes.write(bytes);
+
+			Object value = order.get(i);
+			if (value instanceof Directory) {
+				Directory directory = (Directory) value;
+				records.writeInt(firstChild[i]);
+				records.writeInt(directory.childFiles.size() + directory.childDirectories.size());
+				records.writeInt(-1);
+				records.writeInt(0);
+				records.writeInt(0);
+			} else {
+				FileEntry entry = fileMap.get(value);
+				records.writeLong(entry.offset);
+				records.writeInt(entry.compressedLength);
+				records.writeInt(entry.uncompressedLength);
+				records.writeInt(entry.crc);
+			}
 		}
+
+		to.writeInt(count);
+		to.writeInt(tableSize);
+		for (int slot : table) {
+			to.writeInt(slot);
+		}
+		to.write(recordBytes.getArray(), 0, recordBytes.size());
+		to.write(nameBytes.getArray(), 0, nameBytes.size());
 	}
 
 	static final class Directory {
@@ -314,7 +427,7 @@ final class QuiltZipCustomCompressedWriter {
 		@Override
 		public void run() {
 			while (exception == null && !aborted) {
-				final Path next;
+				final SourceFile next;
 				try {
 					next = sourceFiles.take();
 				} catch (InterruptedException e) {
@@ -334,15 +447,13 @@ final class QuiltZipCustomCompressedWriter {
 				try {
 					int uncompressedLength;
 					ExposedByteArrayOutputStream baos = new ExposedByteArrayOutputStream();
+					CRC32 crc = new CRC32();
 					try (DeflaterOutputStream compressor = new DeflaterOutputStream(baos, deflater)) {
-						uncompressedLength = (int) Files.copy(next, compressor);
+						uncompressedLength = (int) Files.copy(next.path, new CheckedOutputStream(compressor, crc));
 					}
-					int offset = currentOffset.getAndAdd(baos.size());
-					int length = baos.size();
-					channel.write(ByteBuffer.wrap(baos.getArray(), 0, length), offset);
-					files.put(next, new FileEntry(offset, uncompressedLength, length));
+					write(channel, next, new CompressedFile(next, baos, uncompressedLength, (int) crc.getValue()));
 				} catch (IOException e) {
-					e = new IOException("Failed to copy " + next, e);
+					e = new IOException("Failed to copy " + next.path, e);
 					synchronized (QuiltZipCustomCompressedWriter.this) {
 						if (aborted) {
 							// Don't try to append to an exception if it's already been thrown
@@ -365,23 +476,76 @@ final class QuiltZipCustomCompressedWriter {
 		}
 	}
 
+	/** Writes the given file if every file queued before it has been written, and then any files after it which
+	 * were waiting on it. If too many bytes are already waiting then this blocks until the earlier files have been
+	 * written. (The file at {@link #nextWriteIndex} never blocks, since files are taken from the queue in order). */
+	private void write(FileChannel channel, SourceFile file, CompressedFile compressed) throws IOException {
+		synchronized (compressedFiles) {
+			int size = compressed.data.size();
+			while (file.index != nextWriteIndex && pendingBytes > 0 && pendingBytes + size > MAX_PENDING_BYTES) {
+				if (exception != null || aborted) {
+					// The thread writing the next file might have failed, so nothing else will be written
+					throw new IOException("Stopped waiting to write " + file.path + " since another file failed");
+				}
+				try {
+					// Timed, since the thread compressing the next file doesn't notify us if it fails
+					compressedFiles.wait(100);
+				} catch (InterruptedException e) {
+					interrupted = true;
+					throw new InterruptedIOException("Interrupted while waiting to write " + file.path);
+				}
+			}
+
+			compressedFiles.put(file.index, compressed);
+			pendingBytes += size;
+			while ((compressed = compressedFiles.remove(nextWriteIndex)) != null) {
+				SourceFile written = compressed.source;
+				int length = compressed.data.size();
+				channel.write(ByteBuffer.wrap(compressed.data.getArray(), 0, length), currentOffset);
+				files.put(written.path, new FileEntry(currentOffset, compressed.uncompressedLength, length, compressed.crc));
+				currentOffset += length;
+				pendingBytes -= length;
+				nextWriteIndex++;
+			}
+			compressedFiles.notifyAll();
+		}
+	}
+
+	static final class SourceFile {
+		final Path path;
+		/** The position of this file in the output. */
+		final int index;
+
+		SourceFile(Path path, int index) {
+			this.path = path;
+			this.index = index;
+		}
+	}
+
+	static final class CompressedFile {
+		final SourceFile source;
+		final ExposedByteArrayOutputStream data;
+		final int uncompressedLength;
+		final int crc;
+
+		CompressedFile(SourceFile source, ExposedByteArrayOutputStream data, int uncompressedLength, int crc) {
+			this.source = source;
+			this.data = data;
+			this.uncompressedLength = uncompressedLength;
+			this.crc = crc;
+		}
+	}
+
 	static final class FileEntry {
-		final int offset;
+		final long offset;
 		final int uncompressedLength, compressedLength;
+		final int crc;
 
-		FileEntry(int offset, int uncompressedLength, int compressedLength) {
+		FileEntry(long offset, int uncompressedLength, int compressedLength, int crc) {
 			this.offset = offset;
 			this.uncompressedLength = uncompressedLength;
 			this.compressedLength = compressedLength;
-		}
-	}
-
-	private static final class StopThreadsPath extends NullPath {
-		@Override
-		protected IllegalStateException illegal() {
-			throw new IllegalStateException(
-				"QuiltZipCustomCompressedWriter must NEVER permit StopThreadsPath to leak!"
-			);
+			this.crc = crc;
 		}
 	}
 }
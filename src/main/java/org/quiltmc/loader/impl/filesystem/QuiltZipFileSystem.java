@@ -19,6 +19,8 @@ package org.quiltmc.loader.impl.filesystem;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,21 +28,31 @@ import java.io.PushbackInputStream;
 import java.io.UncheckedIOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -58,6 +70,7 @@ import org.quiltmc.loader.impl.util.LimitedInputStream;
 import org.quiltmc.loader.impl.util.QuiltLoaderCleanupTasks;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
 
 /** A read-only file system that only caches the locations of zip entries rather than their zip contents. This is
  * slightly more flexible than java's zip file system since it can have a different "root" than the real root of a zip
@@ -73,21 +86,51 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 	static final boolean DEBUG_TEST_READING = false;
 
+	/** Set from {@link SystemProperties#ZIPFS_MEMORY_MAPPED}, or null if it isn't set, in which case only files written
+	 * by loader are mapped. Other files (like mods) could be truncated while they're mapped, which would crash the
+	 * JVM rather than throwing an exception. */
+	static final @Nullable Boolean USE_MAPPED_SOURCE;
+
+	/** True if files written by loader are mapped when {@link #USE_MAPPED_SOURCE} isn't set. */
+	static final boolean MAP_LOADER_FILES;
+
+	static {
+		String value = System.getProperty(SystemProperties.ZIPFS_MEMORY_MAPPED);
+		USE_MAPPED_SOURCE = value == null ? null : Boolean.parseBoolean(value);
+
+		boolean windows = System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("windows");
+		// 32 bit JVMs don't have enough address space to map every mod
+		boolean is32Bit = "32".equals(System.getProperty("sun.arch.data.model"));
+		MAP_LOADER_FILES = !windows && !is32Bit;
+	}
+
+	/** Controls checking the CRC of files read from a quilt compressed file system. */
+	static final boolean VERIFY_CRC = SystemProperties.VALIDATION_LEVEL > 0;
+
 	final WeakReference<QuiltZipFileSystem> thisRef = new WeakReference<>(this);
 	final ZipSource source;
 
+	/** The directory of a "quiltmczipcmpv3" file, if this was opened from one. Entries are only read from this when
+	 * they are first requested, and then stored in {@link #indexedEntries}. */
+	private @Nullable QuiltZipCustomCompressedIndex index;
+	/** The full path of our root folder in {@link #index} - empty if our root is the root of the index. */
+	private String indexRoot = "";
+	private final Map<QuiltZipPath, QuiltUnifiedEntry> indexedEntries = new ConcurrentHashMap<>();
+
 	public QuiltZipFileSystem(String name, Path zipFrom, String zipPathPrefix) throws IOException {
+		this(name, zipFrom, zipPathPrefix, false);
+	}
+
+	/** @param loaderFile True if the zip was written by loader, and is never modified after it's been written (like the
+	 *            transform cache), so it can be memory mapped by default. */
+	public QuiltZipFileSystem(String name, Path zipFrom, String zipPathPrefix, boolean loaderFile) throws IOException {
 		super(QuiltZipFileSystem.class, QuiltZipPath.class, name, true);
 
 		if (DEBUG_TEST_READING) {
 			System.out.println("new QuiltZipFileSystem ( "  + name + ", from " + zipFrom + " )");
 		}
 
-		if (zipFrom.getFileSystem() == FileSystems.getDefault()) {
-			source = new SharedByteChannels(this, zipFrom);
-		} else {
-			source = new InMemorySource(Files.newInputStream(zipFrom));
-		}
+		source = createSource(zipFrom, loaderFile);
 
 		// Ensure root exists - empty zips wouldn't create this otherwise
 		addEntryAndParents(new QuiltUnifiedFolderWriteable(root));
@@ -99,7 +142,22 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 			pushback.mark(header.length);
 			int readLength = pushback.read(header);
 			if (readLength == header.length && Arrays.equals(header, QuiltZipCustomCompressedWriter.HEADER)) {
-				if (!(source instanceof SharedByteChannels)) {
+				if (!source.isRandomAccess()) {
+					throw new IOException("Cannot read a custom compressed stream that isn't on the default file system!");
+				}
+				DataInputStream data = new DataInputStream(pushback);
+				long directoryStart = data.readLong();
+				int directoryLength = data.readInt();
+				QuiltZipCustomCompressedIndex directory = new QuiltZipCustomCompressedIndex(
+					source.readRegion(directoryStart, directoryLength)
+				);
+				if (zipPathPrefix.isEmpty()) {
+					index = directory;
+				} else {
+					readIndex(directory, zipPathPrefix);
+				}
+			} else if (readLength == header.length && Arrays.equals(header, QuiltZipCustomCompressedWriter.HEADER_V2)) {
+				if (!source.isRandomAccess()) {
 					throw new IOException("Cannot read a custom compressed stream that isn't on the default file system!");
 				}
 				int directoryStart = new DataInputStream(pushback).readInt();
@@ -109,7 +167,7 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 				}
 			} else if (readLength == header.length && Arrays.equals(header, QuiltZipCustomCompressedWriter.PARTIAL_HEADER)) {
 				throw new PartiallyWrittenIOException();
-			} else {
+			} else if (!source.isRandomAccess() || !initializeFromCentralDirectory(zipPathPrefix)) {
 				pushback.reset();
 				initializeFromZip(pushback, zipPathPrefix);
 			}
@@ -124,6 +182,58 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 		dumpEntries(name);
 	}
 
+	private ZipSource createSource(Path zipFrom, boolean loaderFile) throws IOException {
+		if (zipFrom.getFileSystem() == FileSystems.getDefault()) {
+			return createFileSource(zipFrom, loaderFile);
+		}
+
+		// Jar-in-jar: if the inner jar is stored without compression then we can read it directly from the outer
+		// file, rather than copying the whole thing into memory.
+		QuiltZipFile stored = getStoredRandomAccessFile(zipFrom);
+		if (stored != null) {
+			return new WindowSource(this, stored.source, stored.getOffset(), stored.uncompressedSize);
+		}
+
+		if (Boolean.getBoolean(SystemProperties.ZIPFS_NESTED_TEMP_FILES)) {
+			Path tempFile = Files.createTempFile("quilt-loader-nested-", ".jar");
+			tempFile.toFile().deleteOnExit();
+			try (InputStream from = Files.newInputStream(zipFrom)) {
+				Files.copy(from, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return createFileSource(tempFile, true);
+		}
+
+		return new InMemorySource(Files.newInputStream(zipFrom));
+	}
+
+	private ZipSource createFileSource(Path zipFrom, boolean loaderFile) throws IOException {
+		boolean mapped = USE_MAPPED_SOURCE != null ? USE_MAPPED_SOURCE : loaderFile && MAP_LOADER_FILES;
+		return mapped ? new MappedSource(this, zipFrom) : new SharedByteChannels(this, zipFrom);
+	}
+
+	/** @return True if a {@link QuiltZipFileSystem} opened from the given path would read it directly from the zip
+	 *         that contains it, rather than copying it into memory first. This is only the case for zips which are
+	 *         stored without compression inside another {@link QuiltZipFileSystem}. */
+	public static boolean canReadInPlace(Path zipFrom) {
+		return getStoredRandomAccessFile(zipFrom) != null;
+	}
+
+	@Nullable
+	private static QuiltZipFile getStoredRandomAccessFile(Path zipFrom) {
+		if (!(zipFrom instanceof QuiltZipPath)) {
+			return null;
+		}
+		QuiltZipFileSystem parentFs = ((QuiltZipPath) zipFrom).fs;
+		QuiltUnifiedEntry entry = parentFs.getEntry(zipFrom);
+		if (entry instanceof QuiltZipFile) {
+			QuiltZipFile file = (QuiltZipFile) entry;
+			if (!file.isCompressed && file.source.isRandomAccess()) {
+				return file;
+			}
+		}
+		return null;
+	}
+
 	@Override
 	protected boolean startWithConcurrentMap() {
 		return false;
@@ -156,6 +266,69 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 		}
 	}
 
+	/** Reads every entry from the central directory at the end of the zip, which is much faster than
+	 * {@link #initializeFromZip(InputStream, String)} for large zips since the data of each entry isn't read. The local
+	 * header of each entry is only read when the entry is first opened.
+	 *
+	 * @return False if the zip doesn't have a central directory that can be read, in which case nothing has been
+	 *         added. */
+	private boolean initializeFromCentralDirectory(String zipPathPrefix) throws IOException {
+		List<QuiltZipCentralDirectoryReader.Entry> entries;
+		try (SeekableByteChannel channel = source.channel()) {
+			entries = QuiltZipCentralDirectoryReader.read(channel);
+		} catch (IOException e) {
+			// Reading it sequentially might still work, since that doesn't use the central directory at all
+			return false;
+		}
+
+		if (entries == null) {
+			return false;
+		}
+
+		for (QuiltZipCentralDirectoryReader.Entry entry : entries) {
+			String entryName = entry.name;
+
+			if (!entryName.startsWith(zipPathPrefix)) {
+				continue;
+			}
+			entryName = entryName.substring(zipPathPrefix.length());
+			if (!entryName.startsWith("/")) {
+				entryName = "/" + entryName;
+			}
+
+			QuiltZipPath path = getPath(entryName);
+
+			if (entryName.endsWith("/")) {
+				createDirectories(path);
+			} else {
+				addEntryAndParents(new QuiltZipFile(path, source, entry));
+			}
+		}
+		return true;
+	}
+
+	/** Eagerly adds every entry from the given index, for when only part of it is needed. */
+	private void readIndex(QuiltZipCustomCompressedIndex directory, String zipPathPrefix) throws IOException {
+		for (int i = 0; i < directory.entryCount; i++) {
+			String name = directory.getName(i);
+			QuiltZipPath path = getPath(name);
+			if (directory.isFolder(i)) {
+				if (name.startsWith(zipPathPrefix) || zipPathPrefix.startsWith(name)) {
+					createDirectories(path);
+				}
+			} else if (name.startsWith(zipPathPrefix)) {
+				addEntryAndParents(createIndexedFile(directory, i, path));
+			}
+		}
+	}
+
+	private QuiltZipFile createIndexedFile(QuiltZipCustomCompressedIndex directory, int i, QuiltZipPath path) {
+		return new QuiltZipFile(
+			path, source, directory.getOffset(i), directory.getCompressedSize(i), directory.getUncompressedSize(i),
+			directory.getCrc(i)
+		);
+	}
+
 	private void readDirectory(QuiltZipPath path, DataInputStream stream, String zipPathPrefix) throws IOException {
 		String pathString = path.toString();
 		if (pathString.startsWith(zipPathPrefix) || zipPathPrefix.startsWith(pathString)) {
@@ -193,7 +366,14 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 		source = newRoot.fs.source;
 		source.open(this);
 
-		addFolder(newRoot, getRoot());
+		QuiltZipFileSystem from = newRoot.fs;
+		if (from.index != null) {
+			// No need to copy anything, since entries are looked up lazily
+			index = from.index;
+			indexRoot = from.toIndexName(newRoot.toAbsolutePath().normalize());
+		} else {
+			addFolder(newRoot, getRoot());
+		}
 
 		QuiltZipFileSystemProvider.PROVIDER.register(this);
 
@@ -202,6 +382,70 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 		}
 	}
 
+	// Lazy index lookup
+
+	private String toIndexName(Path path) {
+		String name = path.toString();
+		if (indexRoot.isEmpty()) {
+			return name;
+		}
+		return "/".equals(name) ? indexRoot : indexRoot + name;
+	}
+
+	@Override
+	protected QuiltUnifiedEntry getEntry(Path path) {
+		QuiltZipCustomCompressedIndex directory = index;
+		if (directory == null) {
+			return super.getEntry(path);
+		}
+		if (path.getFileSystem() != this) {
+			throw new IllegalStateException("The given path is for a different filesystem!");
+		}
+		QuiltZipPath zipPath = (QuiltZipPath) path.toAbsolutePath().normalize();
+		QuiltUnifiedEntry entry = indexedEntries.get(zipPath);
+		if (entry != null) {
+			return entry;
+		}
+
+		int i = directory.find(toIndexName(zipPath));
+		if (i < 0) {
+			return null;
+		}
+
+		if (directory.isFolder(i)) {
+			int first = directory.getFirstChild(i);
+			QuiltMapPath<?, ?>[] children = new QuiltMapPath<?, ?>[directory.getChildCount(i)];
+			for (int c = 0; c < children.length; c++) {
+				String childName = directory.getName(first + c);
+				children[c] = zipPath.resolve(childName.substring(childName.lastIndexOf('/') + 1));
+			}
+			entry = new QuiltUnifiedFolderReadOnly(zipPath, children);
+		} else {
+			entry = createIndexedFile(directory, i, zipPath);
+		}
+
+		QuiltUnifiedEntry previous = indexedEntries.putIfAbsent(zipPath, entry);
+		return previous != null ? previous : entry;
+	}
+
+	@Override
+	protected int getEntryCount() {
+		// Only used as a size hint, so the whole index is fine for sub-folders
+		return index != null ? index.entryCount : super.getEntryCount();
+	}
+
+	@Override
+	protected Iterable<QuiltZipPath> getEntryPathIterator() {
+		if (index == null) {
+			return super.getEntryPathIterator();
+		}
+		List<QuiltZipPath> paths = new ArrayList<>();
+		for (String name : index.listPaths(indexRoot.isEmpty() ? "/" : indexRoot)) {
+			paths.add(getPath(name));
+		}
+		return paths;
+	}
+
 	private void addFolder(QuiltZipPath src, QuiltZipPath dst) {
 		QuiltZipFileSystem srcFS = src.fs;
 		QuiltUnifiedEntry entryFrom = srcFS.getEntry(src);
@@ -218,7 +462,7 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 			addEntryWithoutParentsUnsafe(new QuiltUnifiedFolderReadOnly(dst, dstChildren));
 		} else if (entryFrom instanceof QuiltZipFile) {
 			QuiltZipFile from = (QuiltZipFile) entryFrom;
-			addEntryWithoutParentsUnsafe(new QuiltZipFile(dst, source, from.offset, from.compressedSize, from.uncompressedSize, from.isCompressed));
+			addEntryWithoutParentsUnsafe(from.createCopiedTo(dst));
 		} else {
 			// This isn't meant to happen, it means something got constructed badly
 			throw new IllegalArgumentException("Unknown source entry " + entryFrom);
@@ -233,7 +477,22 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 	 * @param dst The destination file to copy to. This must not already exist.
 	 * @throws IOException if anything goes wrong while writing the file or reading the source files. */
 	public static void writeQuiltCompressedFileSystem(Path src, Path dst) throws IOException {
-		new QuiltZipCustomCompressedWriter(src, dst).write();
+		writeQuiltCompressedFileSystem(src, dst, null);
+	}
+
+	/** Writes a "Quilt compressed file system" to the given destination, with the file contents placed in the order
+	 * given by the order function. Files which are read together (for example classes loaded one after another at
+	 * startup) can be given consecutive ranks, so they end up next to each other in the file.
+	 * 
+	 * @param src The source folder to copy from.
+	 * @param dst The destination file to copy to. This must not already exist.
+	 * @param order Returns the rank of each file, given its path relative to the source folder (using "/" as the
+	 *            separator). Files with lower ranks are written first, and files with the same rank are written in
+	 *            the order they are found in. If this is null then files are written in the order they are found in.
+	 * @throws IOException if anything goes wrong while writing the file or reading the source files. */
+	public static void writeQuiltCompressedFileSystem(Path src, Path dst, @Nullable ToIntFunction<String> order)
+		throws IOException {
+		new QuiltZipCustomCompressedWriter(src, dst, order).write();
 	}
 
 	@Override
@@ -334,6 +593,10 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 		abstract InputStream openConstructingStream() throws IOException;
 
+		/** @return True if {@link #stream(long)} and {@link #channel()} can read from anywhere in the file, rather than
+		 *         only the parts given to {@link #forIndividualFile(long, int)}. */
+		abstract boolean isRandomAccess();
+
 		abstract ZipSource forIndividualFile(long offset, int length);
 
 		abstract void build() throws IOException;
@@ -347,6 +610,22 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 		abstract InputStream stream(long position) throws IOException;
 
 		abstract SeekableByteChannel channel() throws IOException;
+
+		/** @return The given region of the file, with position 0 at the start of the region. This may be a view of a
+		 *         memory mapped file rather than a copy. */
+		ByteBuffer readRegion(long position, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			try (SeekableByteChannel channel = channel()) {
+				channel.position(position);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0) {
+						throw new EOFException();
+					}
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
 	}
 
 	static final class InMemorySource extends ZipSource {
@@ -394,6 +673,11 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 			};
 		}
 
+		@Override
+		boolean isRandomAccess() {
+			return false;
+		}
+
 		@Override
 		ZipSource forIndividualFile(long offset, int length) {
 			int pos = (int) offset;
@@ -456,6 +740,11 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 			return Files.newInputStream(zipFrom);
 		}
 
+		@Override
+		boolean isRandomAccess() {
+			return true;
+		}
+
 		@Override
 		ZipSource forIndividualFile(long offset, int length) {
 			return this;
@@ -537,6 +826,341 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 		}
 	}
 
+	/** Reads from memory mapped regions of a file, so reads don't need a system call or a channel per thread. Every
+	 * stream and channel only copies from a duplicate of the mapped buffers, so they can be used from any thread. */
+	static final class MappedSource extends ZipSource {
+		/** A single {@link MappedByteBuffer} can't be larger than 2GB, so larger files are mapped in several regions. */
+		static final int REGION_SIZE = 1 << 30;
+
+		final Path zipFrom;
+		final long size;
+		final MappedByteBuffer[] regions;
+		final Set<WeakReference<QuiltZipFileSystem>> fileSystems = new HashSet<>();
+		volatile boolean isOpen = true;
+
+		MappedSource(QuiltZipFileSystem fs, Path zipFrom) throws IOException {
+			this.zipFrom = zipFrom;
+			try (FileChannel channel = FileChannel.open(zipFrom, StandardOpenOption.READ)) {
+				size = channel.size();
+				regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+				for (int i = 0; i < regions.length; i++) {
+					long start = (long) i * REGION_SIZE;
+					regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+				}
+			}
+			open(fs);
+		}
+
+		@Override
+		InputStream openConstructingStream() throws IOException {
+			return stream(0);
+		}
+
+		@Override
+		boolean isRandomAccess() {
+			return true;
+		}
+
+		@Override
+		ZipSource forIndividualFile(long offset, int length) {
+			return this;
+		}
+
+		@Override
+		void build() throws IOException {
+			// NO-OP
+		}
+
+		@Override
+		boolean isOpen() {
+			return isOpen;
+		}
+
+		@Override
+		synchronized void open(QuiltZipFileSystem fs) {
+			fileSystems.add(fs.thisRef);
+		}
+
+		@Override
+		synchronized void close(QuiltZipFileSystem fs) throws IOException {
+			fileSystems.remove(fs.thisRef);
+			if (fileSystems.isEmpty()) {
+				// The mapping itself is only released once it's garbage collected
+				isOpen = false;
+			}
+		}
+
+		/** @return The region containing the given position, positioned and limited to the bytes that can be read
+		 *         from it (up to the given length). */
+		private ByteBuffer slice(long position, int length) {
+			ByteBuffer region = regions[(int) (position / REGION_SIZE)].duplicate();
+			int start = (int) (position % REGION_SIZE);
+			region.limit(Math.min(region.limit(), start + length));
+			region.position(start);
+			return region;
+		}
+
+		@Override
+		ByteBuffer readRegion(long position, int length) throws IOException {
+			if (length > 0 && position + length <= size && position / REGION_SIZE == (position + length - 1) / REGION_SIZE) {
+				return slice(position, length).slice();
+			}
+			return super.readRegion(position, length);
+		}
+
+		int read(long position, byte[] to, int off, int len) {
+			if (position >= size) {
+				return -1;
+			}
+			int total = 0;
+			while (total < len && position < size) {
+				ByteBuffer region = slice(position, len - total);
+				int length = region.remaining();
+				region.get(to, off + total, length);
+				position += length;
+				total += length;
+			}
+			return total;
+		}
+
+		int read(long position, ByteBuffer to) {
+			if (position >= size) {
+				return -1;
+			}
+			int total = 0;
+			while (to.hasRemaining() && position < size) {
+				ByteBuffer region = slice(position, to.remaining());
+				int length = region.remaining();
+				to.put(region);
+				position += length;
+				total += length;
+			}
+			return total;
+		}
+
+		@Override
+		InputStream stream(long position) throws IOException {
+			return new InputStream() {
+				long pos = position;
+
+				@Override
+				public int read() throws IOException {
+					if (pos >= size) {
+						return -1;
+					}
+					return Byte.toUnsignedInt(slice(pos++, 1).get());
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0) {
+						return 0;
+					}
+					int read = MappedSource.this.read(pos, b, off, len);
+					if (read > 0) {
+						pos += read;
+					}
+					return read;
+				}
+
+				@Override
+				public long skip(long n) throws IOException {
+					long skipped = Math.max(0, Math.min(n, size - pos));
+					pos += skipped;
+					return skipped;
+				}
+
+				@Override
+				public int available() throws IOException {
+					return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size - pos));
+				}
+			};
+		}
+
+		@Override
+		SeekableByteChannel channel() throws IOException {
+			return new SeekableByteChannel() {
+				long pos;
+				boolean open = true;
+
+				@Override
+				public boolean isOpen() {
+					return open;
+				}
+
+				@Override
+				public void close() throws IOException {
+					open = false;
+				}
+
+				@Override
+				public int read(ByteBuffer dst) throws IOException {
+					if (!open) {
+						throw new ClosedChannelException();
+					}
+					int read = MappedSource.this.read(pos, dst);
+					if (read > 0) {
+						pos += read;
+					}
+					return read;
+				}
+
+				@Override
+				public int write(ByteBuffer src) throws IOException {
+					throw new NonWritableChannelException();
+				}
+
+				@Override
+				public long position() throws IOException {
+					return pos;
+				}
+
+				@Override
+				public SeekableByteChannel position(long newPosition) throws IOException {
+					if (newPosition < 0) {
+						throw new IllegalArgumentException("position < 0");
+					}
+					pos = newPosition;
+					return this;
+				}
+
+				@Override
+				public long size() throws IOException {
+					return size;
+				}
+
+				@Override
+				public SeekableByteChannel truncate(long newSize) throws IOException {
+					throw new NonWritableChannelException();
+				}
+			};
+		}
+	}
+
+	/** A region of another (random access) {@link ZipSource}, used for zips which are stored without compression inside
+	 * another zip. Positions are relative to the start of the region. */
+	static final class WindowSource extends ZipSource {
+		final ZipSource parent;
+		final long start;
+		final int length;
+
+		WindowSource(QuiltZipFileSystem fs, ZipSource parent, long start, int length) {
+			this.parent = parent;
+			this.start = start;
+			this.length = length;
+			// Keep the parent source open for as long as we are
+			parent.open(fs);
+		}
+
+		@Override
+		InputStream openConstructingStream() throws IOException {
+			return stream(0);
+		}
+
+		@Override
+		boolean isRandomAccess() {
+			return true;
+		}
+
+		@Override
+		ZipSource forIndividualFile(long offset, int length) {
+			return this;
+		}
+
+		@Override
+		void build() throws IOException {
+			// NO-OP
+		}
+
+		@Override
+		boolean isOpen() {
+			return parent.isOpen();
+		}
+
+		@Override
+		void open(QuiltZipFileSystem fs) {
+			parent.open(fs);
+		}
+
+		@Override
+		void close(QuiltZipFileSystem fs) throws IOException {
+			parent.close(fs);
+		}
+
+		@Override
+		InputStream stream(long position) throws IOException {
+			return new LimitedInputStream(parent.stream(start + position), (int) Math.max(0, length - position));
+		}
+
+		@Override
+		SeekableByteChannel channel() throws IOException {
+			SeekableByteChannel from = parent.channel();
+			return new SeekableByteChannel() {
+				long pos;
+
+				@Override
+				public boolean isOpen() {
+					return from.isOpen();
+				}
+
+				@Override
+				public void close() throws IOException {
+					from.close();
+				}
+
+				@Override
+				public int read(ByteBuffer dst) throws IOException {
+					if (pos >= length) {
+						return -1;
+					}
+					int toRead = (int) Math.min(length - pos, dst.remaining());
+					from.position(start + pos);
+					int oldLimit = dst.limit();
+					dst.limit(dst.position() + toRead);
+					int read;
+					try {
+						read = from.read(dst);
+					} finally {
+						dst.limit(oldLimit);
+					}
+					if (read > 0) {
+						pos += read;
+					}
+					return read;
+				}
+
+				@Override
+				public int write(ByteBuffer src) throws IOException {
+					throw new NonWritableChannelException();
+				}
+
+				@Override
+				public long position() throws IOException {
+					return pos;
+				}
+
+				@Override
+				public SeekableByteChannel position(long newPosition) throws IOException {
+					if (newPosition < 0) {
+						throw new IllegalArgumentException("position < 0");
+					}
+					pos = newPosition;
+					return this;
+				}
+
+				@Override
+				public long size() throws IOException {
+					return length;
+				}
+
+				@Override
+				public SeekableByteChannel truncate(long size) throws IOException {
+					throw new NonWritableChannelException();
+				}
+			};
+		}
+	}
+
 	/** An {@link InputStream} which is based on a {@link SeekableByteChannel}, which allows the backing channel to be
 	 * used by multiple streams in the same thread. */
 	static final class ByteChannel2Stream extends InputStream {
@@ -650,13 +1274,19 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 	static final class QuiltZipFile extends QuiltUnifiedFile {
 		final ZipSource source;
-		final long offset;
+		/** The position of the data of this entry, or -1 if it hasn't been read from the local header yet. */
+		private volatile long offset;
+		/** The position of the local header, if this was read from the central directory. */
+		final long localHeaderOffset;
 		final int compressedSize, uncompressedSize;
 		final boolean isCompressed;
+		/** The CRC-32 of the uncompressed data, or -1 if it isn't known. */
+		final long crc;
 
 		QuiltZipFile(QuiltZipPath path, ZipSource source, ZipEntry entry, CustomZipInputStream zip) throws IOException {
 			super(path);
 			this.offset = zip.getOffset();
+			this.localHeaderOffset = -1;
 			int method = entry.getMethod();
 			if (method == ZipEntry.DEFLATED) {
 				isCompressed = true;
@@ -695,6 +1325,7 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 			this.compressedSize = compressed;
 			this.uncompressedSize = uncompressed;
+			this.crc = -1;
 
 			this.source = source.forIndividualFile(offset, compressedSize);
 
@@ -723,25 +1354,70 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 		QuiltZipFile(QuiltZipPath path, ZipSource source, long offset, int compressedSize, int uncompressedSize,
 			boolean isCompressed) {
+			this(path, source, offset, -1, compressedSize, uncompressedSize, isCompressed, -1);
+		}
+
+		QuiltZipFile(QuiltZipPath path, ZipSource source, long offset, int compressedSize, int uncompressedSize,
+			int crc) {
+			this(path, source, offset, -1, compressedSize, uncompressedSize, true, Integer.toUnsignedLong(crc));
+		}
+
+		QuiltZipFile(QuiltZipPath path, ZipSource source, QuiltZipCentralDirectoryReader.Entry entry) throws IOException {
+			this(path, source, -1, entry.localHeaderOffset, toInt(entry, entry.compressedSize), toInt(entry, entry.uncompressedSize), isCompressed(entry.method), -1);
+		}
+
+		private QuiltZipFile(QuiltZipPath path, ZipSource source, long offset, long localHeaderOffset,
+			int compressedSize, int uncompressedSize, boolean isCompressed, long crc) {
 
 			super(path);
 
 			this.source = source;
 			this.offset = offset;
+			this.localHeaderOffset = localHeaderOffset;
 			this.compressedSize = compressedSize;
 			this.uncompressedSize = uncompressedSize;
 			this.isCompressed = isCompressed;
+			this.crc = crc;
 
 			if (DEBUG_TEST_READING) {
 				testReading(path.toString());
 			}
 		}
 
+		private static int toInt(QuiltZipCentralDirectoryReader.Entry entry, long size) throws IOException {
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("The zip entry " + entry.name + " is too large! (" + size + " bytes)");
+			}
+			return (int) size;
+		}
+
+		private static boolean isCompressed(int method) throws IOException {
+			if (method == ZipEntry.DEFLATED) {
+				return true;
+			} else if (method == ZipEntry.STORED) {
+				return false;
+			} else {
+				throw new IOException("Unsupported zip entry method " + method);
+			}
+		}
+
+		/** @return The position of the data of this entry, reading the local header if that hasn't been done yet. */
+		long getOffset() throws IOException {
+			long value = offset;
+			if (value < 0) {
+				try (SeekableByteChannel channel = source.channel()) {
+					value = QuiltZipCentralDirectoryReader.readDataOffset(channel, localHeaderOffset);
+				}
+				offset = value;
+			}
+			return value;
+		}
+
 		private void testReading(String path) {
 			if (!path.endsWith(".json") && !path.endsWith(".txt") && !"META-INF/MANIFEST.MF".equals(path)) {
 				return;
 			}
-			System.out.println(path + " @ " + Integer.toHexString((int) offset));
+			System.out.println(path + " @ " + Long.toHexString(offset < 0 ? localHeaderOffset : offset));
 			Error e2 = null;
 			byte[] bytes = new byte[0];
 			try (InputStream from = createInputStream()) {
@@ -790,7 +1466,7 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 		@Override
 		protected QuiltUnifiedEntry createCopiedTo(QuiltMapPath<?, ?> newPath) {
-			return new QuiltZipFile((QuiltZipPath) newPath, source, offset, compressedSize, uncompressedSize, isCompressed);
+			return new QuiltZipFile((QuiltZipPath) newPath, source, offset, localHeaderOffset, compressedSize, uncompressedSize, isCompressed, crc);
 		}
 
 		@Override
@@ -811,11 +1487,74 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 				//   will always read exactly 65536 bytes, when that's not normally true
 				stream = new LimitedInputStream(stream, uncompressedSize);
 			}
+			if (VERIFY_CRC && crc >= 0) {
+				stream = new CrcCheckingInputStream(stream);
+			}
 			return stream;
 		}
 
+		/** Throws an exception once all of the data has been read, if it doesn't match {@link QuiltZipFile#crc}. */
+		final class CrcCheckingInputStream extends FilterInputStream {
+			final CRC32 actual = new CRC32();
+			int count;
+
+			CrcCheckingInputStream(InputStream in) {
+				super(in);
+			}
+
+			@Override
+			public int read() throws IOException {
+				int read = in.read();
+				if (read >= 0) {
+					actual.update(read);
+					count(1);
+				}
+				return read;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = in.read(b, off, len);
+				if (read > 0) {
+					actual.update(b, off, read);
+					count(read);
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				// Skipped bytes still need to be checked
+				byte[] buffer = new byte[(int) Math.min(n, 4096)];
+				long skipped = 0;
+				while (skipped < n) {
+					int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+					if (read <= 0) {
+						break;
+					}
+					skipped += read;
+				}
+				return skipped;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			private void count(int read) throws IOException {
+				count += read;
+				if (count == uncompressedSize && actual.getValue() != crc) {
+					throw new IOException(
+						"CRC mismatch for " + path + ": expected " + Long.toHexString(crc) + " but got "
+							+ Long.toHexString(actual.getValue())
+					);
+				}
+			}
+		}
+
 		private InputStream createUncompressingInputStream() throws IOException, IOException {
-			return new LimitedInputStream(source.stream(offset), compressedSize);
+			return new LimitedInputStream(source.stream(getOffset()), compressedSize);
 		}
 
 		@Override
@@ -836,7 +1575,7 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 		SeekableByteChannel createByteChannel() throws IOException {
 			if (!isCompressed) {
-				return new OffsetSeekableByteChannel(source.channel());
+				return new OffsetSeekableByteChannel(source.channel(), getOffset());
 			} else {
 				return new InflaterSeekableByteChannel();
 			}
@@ -844,11 +1583,13 @@ public class QuiltZipFileSystem extends QuiltMapFileSystem<QuiltZipFileSystem, Q
 
 		class OffsetSeekableByteChannel implements SeekableByteChannel {
 			final SeekableByteChannel from;
+			final long offset;
 
 			volatile long position = 0;
 
-			OffsetSeekableByteChannel(SeekableByteChannel from) {
+			OffsetSeekableByteChannel(SeekableByteChannel from, long offset) {
 				this.from = from;
+				this.offset = offset;
 			}
 
 			@Override
@@ -19,6 +19,7 @@ package org.quiltmc.loader.impl.game;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -56,6 +57,12 @@ public interface GameProvider {
 		return true;
 	}
 
+	/** @return Classes which the game always loads while starting, and so can be loaded in the background once mixin
+	 *         has been initialised. */
+	default Collection<String> getPreloadClasses() {
+		return Collections.emptyList();
+	}
+
 	default boolean displayCrash(Throwable exception, String context) {
 		return false;
 	}
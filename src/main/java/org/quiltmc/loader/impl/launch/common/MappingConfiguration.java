@@ -17,7 +17,9 @@
 package org.quiltmc.loader.impl.launch.common;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
 import java.net.JarURLConnection;
@@ -31,6 +33,8 @@ import java.util.zip.ZipError;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
+import org.quiltmc.loader.impl.util.FileUtil;
+import org.quiltmc.loader.impl.util.HashUtil;
 import org.quiltmc.loader.impl.util.ManifestUtil;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
@@ -44,6 +48,7 @@ public final class MappingConfiguration {
 	private String gameId;
 	private String gameVersion;
 	private TinyTree mappings;
+	private String mappingsHash;
 
 	public String getGameId() {
 		initialize();
@@ -70,6 +75,14 @@ public final class MappingConfiguration {
 		return mappings;
 	}
 
+	/** @return A hash of the mappings file that {@link #getMappings()} was loaded from, or "none" if there are no
+	 *         mappings. */
+	public String getMappingsHash() {
+		initialize();
+
+		return mappingsHash;
+	}
+
 	public String getTargetNamespace() {
 		return QuiltLauncherBase.getLauncher().isDevelopment() ? "named" : "intermediary";
 	}
@@ -105,13 +118,19 @@ public final class MappingConfiguration {
 					}
 				}
 
-				try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+				byte[] bytes;
+				try (InputStream stream = connection.getInputStream()) {
+					bytes = FileUtil.readAllBytes(stream);
+				}
+
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)))) {
 					long time = System.currentTimeMillis();
 					TinyTree mappings = TinyMappingFactory.loadWithDetection(reader);
 					Log.debug(LogCategory.MAPPINGS, "Loading mappings took %d ms", System.currentTimeMillis() - time);
 
 					if (mappings.getMetadata().getNamespaces().contains(getTargetNamespace())) {
 						this.mappings = mappings;
+						this.mappingsHash = HashUtil.hashToString(HashUtil.computeHash(bytes));
 						break;
 					}
 
@@ -125,6 +144,7 @@ public final class MappingConfiguration {
 		if (mappings == null) {
 			Log.info(LogCategory.MAPPINGS, "Mappings not present!");
 			mappings = TinyMappingFactory.EMPTY_TREE;
+			mappingsHash = "none";
 		}
 
 		initialized = true;
@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.jar.Manifest;
 
@@ -39,7 +40,12 @@ public interface QuiltLauncher {
 	void addToClassPath(Path path, ModContainer mod, URL origin, String... allowedPrefixes);
 	void setAllowedPrefixes(Path path, String... prefixes);
 	void setTransformCache(URL insideTransformCache);
+	/** Sets the file to record the order classes are loaded in, and prefetch classes from on the next launch. */
+	void setClassLoadTrace(Path traceFile);
 	void setHiddenClasses(Set<String> classes);
+	/** Sets whether each package with a package-info class in the transform cache can be loaded, so those classes
+	 * don't need to be read when the package is first loaded. */
+	void setPackageEnvironments(Map<String, Boolean> packages);
 	void hideParentUrl(URL hidden);
 	void hideParentPath(Path obf);
 	void validateGameClassLoader(Object gameInstance);
@@ -149,6 +149,8 @@ public final class Knot extends QuiltLauncherBase {
 		loader.load();
 		loader.freeze();
 
+		classLoader.getDelegate().startPrefetchingClasses();
+
 		MixinBootstrap.init();
 		QuiltMixinBootstrap.init(getEnvironmentType(), loader);
 		QuiltLauncherBase.finishMixinBootstrapping();
@@ -171,6 +173,7 @@ public final class Knot extends QuiltLauncherBase {
 		}
 
 		classLoader.getDelegate().afterMixinIntiializeFinished();
+		classLoader.getDelegate().startPreloadingClasses();
 
 		loader.invokePreLaunch();
 
@@ -308,11 +311,21 @@ public final class Knot extends QuiltLauncherBase {
 		classLoader.getDelegate().setTransformCache(insideTransformCache);
 	}
 
+	@Override
+	public void setClassLoadTrace(Path traceFile) {
+		classLoader.getDelegate().setClassLoadTrace(traceFile);
+	}
+
 	@Override
 	public void setHiddenClasses(Set<String> hiddenClasses) {
 		classLoader.getDelegate().setHiddenClasses(hiddenClasses);
 	}
 
+	@Override
+	public void setPackageEnvironments(Map<String, Boolean> packages) {
+		classLoader.getDelegate().setPackageEnvironments(packages);
+	}
+
 	@Override
 	public void hideParentUrl(URL parent) {
 		classLoader.getDelegate().hideParentUrl(parent);
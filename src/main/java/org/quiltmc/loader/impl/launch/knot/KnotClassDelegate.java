@@ -22,6 +22,8 @@ import org.objectweb.asm.ClassReader;
 import org.quiltmc.loader.api.ModContainer;
 import org.quiltmc.loader.api.QuiltLoader;
 import org.quiltmc.loader.impl.QuiltLoaderImpl;
+import org.quiltmc.loader.impl.filesystem.QuiltClassPath;
+import org.quiltmc.loader.impl.filesystem.QuiltJoinedPath;
 import org.quiltmc.loader.impl.game.GameProvider;
 import org.quiltmc.loader.impl.launch.common.QuiltCodeSource;
 import org.quiltmc.loader.impl.launch.common.QuiltLauncherBase;
@@ -43,15 +45,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.net.JarURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.FileSystem;
 import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.CodeSource;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -62,6 +69,8 @@ import java.util.jar.Manifest;
 class KnotClassDelegate {
 	static class Metadata {
 		static final Metadata EMPTY = new Metadata(null, null);
+		/** Used in {@link KnotClassDelegate#fileSystemMetadata} for file systems which contain more than one mod. */
+		static final Metadata AMBIGUOUS = new Metadata(null, null);
 
 		final Manifest manifest;
 		final CodeSourceImpl codeSource;
@@ -74,6 +83,8 @@ class KnotClassDelegate {
 
 	static class CodeSourceImpl extends CodeSource implements QuiltCodeSource {
 		final String modId;
+		/** Only set once the mod has been found, since classes can be loaded before the mods are. */
+		private volatile Optional<ModContainer> mod;
 
 		public CodeSourceImpl(URL url, Certificate[] certs, String modId) {
 			super(url, certs);
@@ -82,7 +93,17 @@ class KnotClassDelegate {
 
 		@Override
 		public Optional<ModContainer> getQuiltMod() {
-			return QuiltLoader.getModContainer(modId);
+			Optional<ModContainer> container = mod;
+			if (container == null) {
+				if (modId == null) {
+					return Optional.empty();
+				}
+				container = QuiltLoader.getModContainer(modId);
+				if (container.isPresent()) {
+					mod = container;
+				}
+			}
+			return container;
 		}
 	}
 
@@ -90,6 +111,12 @@ class KnotClassDelegate {
 
 	private final Map<String, Metadata> metadataCache = new ConcurrentHashMap<>();
 	private final Map<String, String> modCodeSourceMap = new ConcurrentHashMap<>();
+	/** Metadata for file systems whose root was added as a mod, so classes found on the {@link QuiltClassPath} can be
+	 * matched to their mod without converting them to a URL. */
+	private final Map<FileSystem, Metadata> fileSystemMetadata = new ConcurrentHashMap<>();
+	/** Metadata for every root added to the class path, for classes whose file system isn't in
+	 * {@link #fileSystemMetadata} since it's shared (or is the default file system). */
+	private final Map<Path, Metadata> rootMetadata = new ConcurrentHashMap<>();
 	private final KnotClassLoaderInterface itf;
 	private final GameProvider provider;
 	private final boolean isDevelopment;
@@ -98,6 +125,7 @@ class KnotClassDelegate {
 	private boolean transformInitialized = false;
 	private boolean transformFinishedLoading = false;
 	private Set<String> hiddenClasses = Collections.emptySet();
+	private KnotClassLoadTrace classLoadTrace;
 	private String transformCacheUrl;
 	private final Map<String, String[]> allowedPrefixes = new ConcurrentHashMap<>();
 	private final Set<String> parentSourcedClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
@@ -108,6 +136,8 @@ class KnotClassDelegate {
 
 	/** Map of package to whether we can load it in this environment. */
 	private final Map<String, Boolean> packageSideCache = new ConcurrentHashMap<>();
+	/** Whether each package with a package-info class in the transform cache can be loaded. */
+	private Map<String, Boolean> packageEnvironments = Collections.emptyMap();
 
 	KnotClassDelegate(boolean isDevelopment, EnvType envType, KnotClassLoaderInterface itf, GameProvider provider) {
 		this.isDevelopment = isDevelopment;
@@ -191,7 +221,13 @@ class KnotClassDelegate {
 			}
 		}
 
-		URL url = getClassUrl(name, allowFromParent);
+		KnotClassLoadMetrics.Timer timer = KnotClassLoadMetrics.start();
+		String classFileName = LoaderUtil.getClassFileName(name);
+		// Fast path: classes on the QuiltClassPath are read directly, and only converted to a URL if needed
+		Path path = itf.findResourcePath(classFileName);
+		URL url = path == null ? itf.getResource(classFileName, allowFromParent) : null;
+		Object source = path != null ? path : url;
+		timer.lookupDone();
 
 		if (!allowFromParent && shouldRerouteToParent(name)) {
 			// Force slf4j itself to be loaded on a single classloader
@@ -199,15 +235,14 @@ class KnotClassDelegate {
 			// TODO: Change this into a report, rather than being printed on each overlap.
 			// Check to see if the class actually exists in the parent
 			// and it hasn't been "hidden"
-			String classFileName = LoaderUtil.getClassFileName(name);
 			URL originalURL = itf.getOriginalLoader().getResource(classFileName);
 			if (originalURL != null) {
 				try {
 					URL codeSource = UrlUtil.getSource(classFileName, originalURL);
 					if (codeSource != null && !parentHiddenUrls.contains(codeSource.toString())) {
 						// Exists in parent, not hidden
-						if (url != null) {
-							Log.warn(LogCategory.GENERAL, "Rerouting classloading to the parent classloader instead of " + url);
+						if (source != null) {
+							Log.warn(LogCategory.GENERAL, "Rerouting classloading to the parent classloader instead of " + source);
 						}
 						return null;
 					}
@@ -220,6 +255,10 @@ class KnotClassDelegate {
 		if (!allowedPrefixes.isEmpty()) {
 			String[] prefixes;
 
+			if (url == null && path != null) {
+				url = toUrl(path);
+			}
+
 			if (url != null
 					&& (prefixes = allowedPrefixes.get(url.toString())) != null) {
 				assert prefixes.length > 0;
@@ -238,14 +277,17 @@ class KnotClassDelegate {
 			}
 		}
 
-		byte[] input = getPostMixinClassByteArray(url, name);
+		byte[] input = path != null ? getPreMixinClassByteArray(path, name) : getPreMixinClassByteArray(url, name);
+		timer.readDone();
+		input = applyMixins(input, name);
+		timer.mixinDone();
 		if (input == null) return null;
 
 		if (allowFromParent) {
 			parentSourcedClasses.add(name);
 		}
 
-		KnotClassDelegate.Metadata metadata = getMetadata(name, url);
+		KnotClassDelegate.Metadata metadata = path != null ? getMetadata(name, path) : getMetadata(name, url);
 
 		int pkgDelimiterPos = name.lastIndexOf('.');
 
@@ -264,7 +306,7 @@ class KnotClassDelegate {
 			// or where it causes a re-entrant classloading of itself
 			Log.warn(LogCategory.GENERAL, "Tried to define " + c + " but it was already loaded!");
 			Log.warn(LogCategory.GENERAL, "  - Already loaded source: " + UrlUtil.getCodeSource(c));
-			Log.warn(LogCategory.GENERAL, "  - Rejected (new) source: " + url);
+			Log.warn(LogCategory.GENERAL, "  - Rejected (new) source: " + source);
 			return c;
 		}
 
@@ -294,6 +336,15 @@ class KnotClassDelegate {
 		}
 
 		c = itf.defineClassFwd(name, input, 0, input.length, metadata.codeSource);
+		timer.defineDone(name, modId, input.length);
+
+		if (path != null && classLoadTrace != null) {
+			if (KnotClassPreloader.isPreloading()) {
+				classLoadTrace.recordPreloaded(name);
+			} else {
+				classLoadTrace.record(name);
+			}
+		}
 
 		if (Boolean.getBoolean(SystemProperties.DEBUG_CLASS_TO_MOD)) {
 			StringBuilder text = new StringBuilder(name);
@@ -315,6 +366,11 @@ class KnotClassDelegate {
 	}
 
 	boolean computeCanLoadPackage(String pkgName, boolean allowFromParent) {
+		Boolean cached = packageEnvironments.get(pkgName);
+		if (cached != null) {
+			return cached;
+		}
+
 		String fileName = pkgName + ".package-info";
 		try {
 			byte[] bytes = getRawClassByteArray(fileName, allowFromParent);
@@ -330,6 +386,35 @@ class KnotClassDelegate {
 		}
 	}
 
+	Metadata getMetadata(String name, Path resource) {
+		Metadata metadata = fileSystemMetadata.get(resource.getFileSystem());
+		if (metadata != null && metadata != Metadata.AMBIGUOUS) {
+			return metadata;
+		}
+
+		// The class file is at "root/package/Name.class", so its root is one folder up per package
+		Path root = resource.getParent();
+		for (int i = name.indexOf('.'); i >= 0 && root != null; i = name.indexOf('.', i + 1)) {
+			root = root.getParent();
+		}
+		if (root != null) {
+			metadata = rootMetadata.get(root);
+			if (metadata != null) {
+				return metadata;
+			}
+		}
+
+		return getMetadata(name, toUrl(resource));
+	}
+
+	private static URL toUrl(Path path) {
+		try {
+			return UrlUtil.asUrl(path);
+		} catch (MalformedURLException e) {
+			throw new Error(e);
+		}
+	}
+
 	Metadata getMetadata(String name, URL resourceURL) {
 		if (resourceURL == null) return Metadata.EMPTY;
 
@@ -373,7 +458,7 @@ class KnotClassDelegate {
 		if (mod != null) {
 			modCodeSourceMap.put(mod.metadata().id(), urlStr);
 		}
-		metadataCache.computeIfAbsent(urlStr, str -> {
+		Metadata metadata = metadataCache.computeIfAbsent(urlStr, str -> {
 			Manifest manifest = null;
 
 			try {
@@ -387,6 +472,22 @@ class KnotClassDelegate {
 			String modId = mod == null ? null : mod.metadata().id();
 			return new Metadata(manifest, new CodeSourceImpl(codeSourceUrl, null, modId));
 		});
+
+		indexRoot(loadFrom, metadata);
+		if (loadFrom instanceof QuiltJoinedPath && loadFrom.getParent() == null) {
+			// QuiltClassPath returns paths from the joined file systems, rather than the joined path
+			QuiltJoinedPath joined = (QuiltJoinedPath) loadFrom;
+			for (int i = 0; i < joined.getFileSystem().getBackingPathCount(); i++) {
+				indexRoot(joined.getFileSystem().getBackingPath(i, joined), metadata);
+			}
+		}
+	}
+
+	private void indexRoot(Path root, Metadata metadata) {
+		if (root.getParent() == null && root.getFileSystem() != FileSystems.getDefault()) {
+			fileSystemMetadata.merge(root.getFileSystem(), metadata, (a, b) -> a == b ? a : Metadata.AMBIGUOUS);
+		}
+		rootMetadata.put(root, metadata);
 	}
 
 	Metadata getMetadata(URL codeSourceUrl) {
@@ -444,8 +545,10 @@ class KnotClassDelegate {
 	}
 
 	public byte[] getPostMixinClassByteArray(URL url, String name) {
-		byte[] transformedClassArray = getPreMixinClassByteArray(url, name);
+		return applyMixins(getPreMixinClassByteArray(url, name), name);
+	}
 
+	private byte[] applyMixins(byte[] transformedClassArray, String name) {
 		if (!transformInitialized || !canTransformClass(name)) {
 			return transformedClassArray;
 		}
@@ -462,6 +565,7 @@ class KnotClassDelegate {
 
 	public void afterMixinIntiializeFinished() {
 		transformFinishedLoading = true;
+		MixinServiceKnot.clearClassCache();
 	}
 
 	/**
@@ -493,6 +597,39 @@ class KnotClassDelegate {
 		}
 	}
 
+	/**
+	 * Runs all the class transformers except mixin.
+	 */
+	private byte[] getPreMixinClassByteArray(Path classFile, String name) {
+		// some of the transformers rely on dot notation
+		name = name.replace('/', '.');
+
+		if (!transformFinishedLoading && LOG_EARLY_CLASS_LOADS) {
+			Log.info(LogCategory.GENERAL, "Loading " + name + " early", new Throwable());
+		}
+
+		if (name.startsWith("org.quiltmc.loader.impl.patch.")) {
+			return PatchLoader.getNewPatchedClass(name);
+		}
+
+		if (hiddenClasses.contains(name)) {
+			return null;
+		}
+
+		if (classLoadTrace != null) {
+			byte[] prefetched = classLoadTrace.take(name, classFile);
+			if (prefetched != null) {
+				return prefetched;
+			}
+		}
+
+		try {
+			return FileUtil.readAllBytes(classFile);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to load class file for '" + name + "'!", e);
+		}
+	}
+
 	private static boolean canTransformClass(String name) {
 		name = name.replace('/', '.');
 		// Blocking Fabric Loader classes is no longer necessary here as they don't exist on the modding class loader
@@ -528,10 +665,41 @@ class KnotClassDelegate {
 		transformCacheUrl = insideTransformCache.toString();
 	}
 
+	void setClassLoadTrace(Path traceFile) {
+		classLoadTrace = KnotClassLoadTrace.create(traceFile);
+	}
+
+	/** Starts prefetching the classes loaded by the previous launch. Called once the class path is complete. */
+	void startPrefetchingClasses() {
+		if (classLoadTrace != null) {
+			classLoadTrace.startPrefetching(itf::findResourcePath);
+		}
+	}
+
+	/** Starts loading the classes supplied by the game provider, followed by the classes loaded by the previous launch,
+	 * on background threads (if {@link SystemProperties#CLASS_PRELOAD_THREADS} is set). Called once mixin has finished
+	 * initialising. */
+	void startPreloadingClasses() {
+		int threads = Integer.getInteger(SystemProperties.CLASS_PRELOAD_THREADS, 0);
+		if (threads <= 0) {
+			return;
+		}
+
+		Set<String> names = new LinkedHashSet<>(provider.getPreloadClasses());
+		if (classLoadTrace != null) {
+			names.addAll(classLoadTrace.getPreviousOrder());
+		}
+		KnotClassPreloader.start((ClassLoader) itf, new ArrayList<>(names), threads);
+	}
+
 	void setHiddenClasses(Set<String> hiddenClasses) {
 		this.hiddenClasses = hiddenClasses;
 	}
 
+	void setPackageEnvironments(Map<String, Boolean> packageEnvironments) {
+		this.packageEnvironments = packageEnvironments;
+	}
+
 	void hideParentUrl(URL parentPath) {
 		parentHiddenUrls.add(parentPath.toString());
 	}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** JFR event for a single class loaded by Knot. Loader is compiled against java 8, which doesn't have jdk.jfr, so the
+ * event is registered through jdk.jfr.EventFactory by reflection instead of subclassing jdk.jfr.Event. If JFR isn't
+ * available then {@link #commit} does nothing. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class KnotClassLoadEvent {
+
+	private static final String JFR = "jdk.jfr.";
+
+	private static final int CLASS_NAME = 0;
+	private static final int MOD_ID = 1;
+	private static final int SIZE = 2;
+	private static final int LOOKUP = 3;
+	private static final int READ = 4;
+	private static final int MIXIN = 5;
+	private static final int DEFINE = 6;
+
+	/** EventFactory.newEvent(), bound to our factory. Null if JFR isn't available. */
+	private static final MethodHandle NEW_EVENT;
+	/** EventType.isEnabled(), bound to our event type. */
+	private static final MethodHandle IS_TYPE_ENABLED;
+	private static final MethodHandle IS_ENABLED;
+	private static final MethodHandle SET;
+	private static final MethodHandle COMMIT;
+
+	static {
+		MethodHandle newEvent = null, isTypeEnabled = null, isEnabled = null, set = null, commit = null;
+		try {
+			Class<?> eventClass = Class.forName(JFR + "Event");
+			Class<?> factoryClass = Class.forName(JFR + "EventFactory");
+
+			List<Object> annotations = new ArrayList<>();
+			annotations.add(annotation("Name", "org.quiltmc.loader.ClassLoad"));
+			annotations.add(annotation("Label", "Knot Class Load"));
+			annotations.add(annotation("Category", new String[] { "Quilt Loader", "Class Loading" }));
+			annotations.add(annotation("Description", "A class defined by Knot, and the time spent in each step of loading it"));
+			annotations.add(annotation("StackTrace", false));
+
+			List<Object> fields = new ArrayList<>();
+			fields.add(field(String.class, "className", "Class Name", null, null));
+			fields.add(field(String.class, "modId", "Mod ID", null, null));
+			fields.add(field(int.class, "size", "Size", "DataAmount", "BYTES"));
+			fields.add(field(long.class, "lookupNanos", "Lookup Time", "Timespan", "NANOSECONDS"));
+			fields.add(field(long.class, "readNanos", "Read Time", "Timespan", "NANOSECONDS"));
+			fields.add(field(long.class, "mixinNanos", "Mixin Time", "Timespan", "NANOSECONDS"));
+			fields.add(field(long.class, "defineNanos", "Define Time", "Timespan", "NANOSECONDS"));
+
+			Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			newEvent = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass)).bindTo(factory);
+			Class<?> typeClass = Class.forName(JFR + "EventType");
+			Object type = factoryClass.getMethod("getEventType").invoke(factory);
+			MethodType booleanType = MethodType.methodType(boolean.class);
+			isTypeEnabled = lookup.findVirtual(typeClass, "isEnabled", booleanType).bindTo(type);
+			isEnabled = lookup.findVirtual(eventClass, "isEnabled", MethodType.methodType(boolean.class));
+			set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class));
+			commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class));
+		} catch (ClassNotFoundException e) {
+			// JFR isn't available
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			Log.debug(LogCategory.KNOT, "Failed to register the class load JFR event", e);
+			newEvent = null;
+		}
+		NEW_EVENT = newEvent;
+		IS_TYPE_ENABLED = isTypeEnabled;
+		IS_ENABLED = isEnabled;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	private KnotClassLoadEvent() {}
+
+	private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+		Class<?> annotationClass = Class.forName(JFR + type);
+		Constructor<?> ctor = Class.forName(JFR + "AnnotationElement").getConstructor(Class.class, Object.class);
+		return ctor.newInstance(annotationClass, value);
+	}
+
+	private static Object field(Class<?> type, String name, String label, String unitType, String unit)
+		throws ReflectiveOperationException {
+
+		List<Object> annotations = new ArrayList<>();
+		annotations.add(annotation("Label", label));
+		if (unitType != null) {
+			annotations.add(annotation(unitType, unit));
+		}
+		Constructor<?> ctor = Class.forName(JFR + "ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+		return ctor.newInstance(type, name, Collections.unmodifiableList(annotations));
+	}
+
+	/** @return True if JFR is available, and a running recording has this event enabled. */
+	static boolean isEnabled() {
+		if (NEW_EVENT == null) {
+			return false;
+		}
+
+		try {
+			return (boolean) IS_TYPE_ENABLED.invokeExact();
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	static void commit(String className, String modId, int size, long lookup, long read, long mixin, long define) {
+		if (NEW_EVENT == null) {
+			return;
+		}
+
+		try {
+			Object event = NEW_EVENT.invoke();
+			if (!(boolean) IS_ENABLED.invoke(event)) {
+				return;
+			}
+			SET.invoke(event, CLASS_NAME, (Object) className);
+			SET.invoke(event, MOD_ID, (Object) modId);
+			SET.invoke(event, SIZE, (Object) size);
+			SET.invoke(event, LOOKUP, (Object) lookup);
+			SET.invoke(event, READ, (Object) read);
+			SET.invoke(event, MIXIN, (Object) mixin);
+			SET.invoke(event, DEFINE, (Object) define);
+			COMMIT.invoke(event);
+		} catch (Throwable t) {
+			// Only possible if JFR itself is broken, in which case the event just won't be recorded
+		}
+	}
+}
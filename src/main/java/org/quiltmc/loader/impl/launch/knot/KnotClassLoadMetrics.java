@@ -0,0 +1,204 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Collects the time spent in each step of loading a class in Knot, per mod, if
+ * {@link SystemProperties#ENABLE_CLASS_LOAD_METRICS} or {@link SystemProperties#CLASS_LOAD_METRICS_JMX} is set. Emits a
+ * {@link KnotClassLoadEvent} for every class while JFR is recording that event, even if neither property is set. This
+ * is registered as an MXBean if {@link SystemProperties#CLASS_LOAD_METRICS_JMX} is set. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class KnotClassLoadMetrics implements KnotClassLoadingMXBean {
+
+	static final String OBJECT_NAME = "org.quiltmc.loader:type=KnotClassLoading";
+	static final String UNKNOWN_MOD = "<unknown>";
+
+	static final KnotClassLoadMetrics INSTANCE = new KnotClassLoadMetrics();
+
+	private static final boolean JMX = Boolean.getBoolean(SystemProperties.CLASS_LOAD_METRICS_JMX);
+	private static final boolean ENABLED = JMX || Boolean.getBoolean(SystemProperties.ENABLE_CLASS_LOAD_METRICS);
+
+	/** Returned by {@link #start()} when metrics are disabled and JFR isn't recording, so class loading doesn't pay for
+	 * them. */
+	private static final Timer DISABLED = new Timer(null);
+
+	/** The total time spent in every class load (including nested loads) which has finished on the current thread,
+	 * used to subtract the time of nested loads from the outer load. */
+	private static final ThreadLocal<long[]> NESTED_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+	static {
+		if (JMX) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			} catch (Exception e) {
+				Log.warn(LogCategory.KNOT, "Failed to register the class loading MXBean", e);
+			}
+		}
+	}
+
+	private final Map<String, Counters> mods = new ConcurrentHashMap<>();
+
+	private KnotClassLoadMetrics() {}
+
+	/** Starts timing a class load. The returned timer must be called once after each step. */
+	static Timer start() {
+		return ENABLED || KnotClassLoadEvent.isEnabled() ? new Timer(NESTED_NANOS.get()) : DISABLED;
+	}
+
+	@Override
+	public long getClassCount() {
+		return mods.values().stream().mapToLong(c -> c.classes.sum()).sum();
+	}
+
+	@Override
+	public long getByteCount() {
+		return mods.values().stream().mapToLong(c -> c.bytes.sum()).sum();
+	}
+
+	@Override
+	public long getTotalNanos() {
+		long total = 0;
+		for (Counters counters : mods.values()) {
+			total += counters.lookupNanos.sum() + counters.readNanos.sum();
+			total += counters.mixinNanos.sum() + counters.defineNanos.sum();
+		}
+		return total;
+	}
+
+	@Override
+	public Map<String, KnotClassLoadingMXBean.ModStats> getModStats() {
+		return snapshot();
+	}
+
+	@Override
+	public void reset() {
+		mods.clear();
+	}
+
+	/** @return A copy of the current statistics of every mod, sorted by mod id. */
+	Map<String, KnotClassLoadingMXBean.ModStats> snapshot() {
+		Map<String, KnotClassLoadingMXBean.ModStats> map = new TreeMap<>();
+		for (Map.Entry<String, Counters> entry : mods.entrySet()) {
+			Counters c = entry.getValue();
+			map.put(entry.getKey(), new KnotClassLoadingMXBean.ModStats(
+				entry.getKey(), c.classes.sum(), c.bytes.sum(), //
+				c.lookupNanos.sum(), c.readNanos.sum(), c.mixinNanos.sum(), c.defineNanos.sum()
+			));
+		}
+		return map;
+	}
+
+	private void record(String name, @Nullable String modId, int size, long lookup, long read, long mixin, long define) {
+		String key = modId != null ? modId : UNKNOWN_MOD;
+		KnotClassLoadEvent.commit(name, key, size, lookup, read, mixin, define);
+
+		if (!ENABLED) {
+			// Only timed for JFR
+			return;
+		}
+
+		Counters counters = mods.computeIfAbsent(key, k -> new Counters());
+		counters.classes.increment();
+		counters.bytes.add(size);
+		counters.lookupNanos.add(lookup);
+		counters.readNanos.add(read);
+		counters.mixinNanos.add(mixin);
+		counters.defineNanos.add(define);
+	}
+
+	static final class Timer {
+		/** Null if metrics are disabled. */
+		@Nullable
+		private final long[] nested;
+		private final long start;
+		private final long nestedAtStart;
+		private long last;
+		private long nestedAtLast;
+		private long lookup, read, mixin;
+
+		Timer(@Nullable long[] nested) {
+			this.nested = nested;
+			if (nested == null) {
+				start = nestedAtStart = 0;
+				return;
+			}
+			start = last = System.nanoTime();
+			nestedAtStart = nestedAtLast = nested[0];
+		}
+
+		/** @return The time since the last step, excluding nested class loads. */
+		private long step() {
+			long now = System.nanoTime();
+			long nestedNow = nested[0];
+			long time = (now - last) - (nestedNow - nestedAtLast);
+			last = now;
+			nestedAtLast = nestedNow;
+			return time;
+		}
+
+		void lookupDone() {
+			if (nested != null) {
+				lookup = step();
+			}
+		}
+
+		void readDone() {
+			if (nested != null) {
+				read = step();
+			}
+		}
+
+		void mixinDone() {
+			if (nested != null) {
+				mixin = step();
+			}
+		}
+
+		void defineDone(String name, @Nullable String modId, int size) {
+			if (nested == null) {
+				return;
+			}
+			long define = step();
+			// Replace the nested loads with this one, since they are included in it
+			nested[0] = nestedAtStart + (last - start);
+			INSTANCE.record(name, modId, size, lookup, read, mixin, define);
+		}
+	}
+
+	private static final class Counters {
+		final LongAdder classes = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder lookupNanos = new LongAdder();
+		final LongAdder readNanos = new LongAdder();
+		final LongAdder mixinNanos = new LongAdder();
+		final LongAdder defineNanos = new LongAdder();
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.impl.util.FileUtil;
+import org.quiltmc.loader.impl.util.LoaderUtil;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Records the order that {@link KnotClassDelegate} defines classes in, and stores it next to the transform cache when
+ * the game exits. On the next launch the recorded order is replayed by a small pool of threads, which read (and so
+ * inflate) each class file before the main thread asks for it. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class KnotClassLoadTrace {
+
+	/** The maximum number of classes recorded, since only the start of the game is interesting. */
+	private static final int MAX_RECORDED = 1 << 16;
+	/** The maximum number of bytes which have been prefetched but not taken by the main thread. */
+	private static final long MAX_PENDING_BYTES = 64 << 20;
+	/** Prefetching stops if the main thread doesn't take anything for this long, since the trace is probably stale. */
+	private static final long IDLE_TIMEOUT_NANOS = 10_000_000_000L;
+
+	/** State of a class which a prefetch thread is currently reading. */
+	private static final Object IN_PROGRESS = new Object();
+	/** State of a class which the main thread has already asked for. */
+	private static final Object TAKEN = new Object();
+
+	private final Path file;
+	private final List<String> previous;
+	private final Set<String> previousSet;
+	private final List<String> recorded = new ArrayList<>();
+	private final Set<String> recordedSet = new HashSet<>();
+
+	/** Either {@link #IN_PROGRESS}, {@link #TAKEN}, or a {@link Prefetched}. */
+	private final ConcurrentHashMap<String, Object> states = new ConcurrentHashMap<>();
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final AtomicLong pendingBytes = new AtomicLong();
+	private final AtomicInteger activeThreads = new AtomicInteger();
+	private volatile long lastTake = System.nanoTime();
+	private volatile boolean started;
+	private volatile boolean stopped;
+
+	private KnotClassLoadTrace(Path file, List<String> previous) {
+		this.file = file;
+		this.previous = previous;
+		this.previousSet = new HashSet<>(previous);
+	}
+
+	/** @return A new trace which records to (and replays from) the given file, or null if traces are disabled. */
+	@Nullable
+	static KnotClassLoadTrace create(Path file) {
+		if (Boolean.getBoolean(SystemProperties.DISABLE_CLASS_LOAD_TRACE)) {
+			return null;
+		}
+
+		List<String> previous;
+		try {
+			previous = Files.readAllLines(file, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			previous = Collections.emptyList();
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to read the class load trace " + file, e);
+			previous = Collections.emptyList();
+		}
+
+		KnotClassLoadTrace trace = new KnotClassLoadTrace(file, previous);
+		Thread hook = new Thread(trace::store, "QuiltLoader Class Load Trace Writer");
+		Runtime.getRuntime().addShutdownHook(hook);
+		return trace;
+	}
+
+	/** Starts prefetching every class in the previous trace.
+	 *
+	 * @param finder Returns the path a class file would be loaded from, or null if it can't be loaded from a path. */
+	void startPrefetching(Function<String, Path> finder) {
+		int threads = Integer.getInteger(SystemProperties.CLASS_LOAD_TRACE_THREADS, //
+			Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+
+		if (previous.isEmpty() || threads <= 0) {
+			return;
+		}
+
+		lastTake = System.nanoTime();
+		started = true;
+		activeThreads.set(threads);
+
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(() -> runPrefetcher(finder), "QuiltLoader Class Prefetcher #" + i);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			thread.start();
+		}
+	}
+
+	private void runPrefetcher(Function<String, Path> finder) {
+		int index;
+		while (!stopped && (index = nextIndex.getAndIncrement()) < previous.size()) {
+
+			while (pendingBytes.get() > MAX_PENDING_BYTES) {
+				if (!waitForMainThread()) {
+					return;
+				}
+			}
+
+			String name = previous.get(index);
+			if (states.putIfAbsent(name, IN_PROGRESS) != null) {
+				continue;
+			}
+
+			Prefetched prefetched = null;
+			try {
+				Path path = finder.apply(LoaderUtil.getClassFileName(name));
+				if (path != null) {
+					prefetched = new Prefetched(path, FileUtil.readAllBytes(path));
+				}
+			} catch (IOException | RuntimeException e) {
+				// The main thread will report this when it reads the class itself
+			}
+
+			if (prefetched == null) {
+				states.remove(name, IN_PROGRESS);
+			} else if (states.replace(name, IN_PROGRESS, prefetched)) {
+				pendingBytes.addAndGet(prefetched.bytes.length);
+			}
+		}
+
+		if (activeThreads.decrementAndGet() == 0) {
+			// The last thread keeps anything which hasn't been taken yet until the main thread stops loading classes
+			while (pendingBytes.get() > 0 && waitForMainThread()) {
+				// Nothing else to prefetch
+			}
+		}
+	}
+
+	/** Waits until the main thread takes a prefetched class, or it hasn't taken one for {@link #IDLE_TIMEOUT_NANOS}.
+	 *
+	 * @return false if prefetching has been stopped. */
+	private synchronized boolean waitForMainThread() {
+		if (stopped) {
+			return false;
+		}
+
+		long idleNanos = IDLE_TIMEOUT_NANOS - (System.nanoTime() - lastTake);
+		if (idleNanos <= 0) {
+			stop();
+			return false;
+		}
+
+		try {
+			wait(idleNanos / 1_000_000 + 1);
+		} catch (InterruptedException e) {
+			stop();
+			return false;
+		}
+		return !stopped;
+	}
+
+	private synchronized void stop() {
+		if (!stopped) {
+			stopped = true;
+			Log.debug(LogCategory.CACHE, "Stopped prefetching classes, since the main thread stopped using them.");
+			states.replaceAll((name, state) -> TAKEN);
+			pendingBytes.set(0);
+			notifyAll();
+		}
+	}
+
+	/** @return Every class recorded by the previous launch, in the order they were loaded. */
+	List<String> getPreviousOrder() {
+		return Collections.unmodifiableList(previous);
+	}
+
+	/** @return The bytes of the given class if they have already been read from the given path, or null if the caller
+	 *         needs to read them itself. */
+	@Nullable
+	byte[] take(String name, Path path) {
+		if (!started || stopped || !previousSet.contains(name)) {
+			return null;
+		}
+
+		Object state = states.put(name, TAKEN);
+
+		if (state instanceof Prefetched) {
+			Prefetched prefetched = (Prefetched) state;
+			pendingBytes.addAndGet(-prefetched.bytes.length);
+			lastTake = System.nanoTime();
+			synchronized (this) {
+				notifyAll();
+			}
+			if (prefetched.path.equals(path)) {
+				return prefetched.bytes;
+			}
+		}
+
+		return null;
+	}
+
+	void record(String name) {
+		synchronized (recorded) {
+			if (recorded.size() < MAX_RECORDED && recordedSet.add(name)) {
+				recorded.add(name);
+			}
+		}
+	}
+
+	/** Records a class defined by {@link KnotClassPreloader}, but only if the previous launch recorded it. The game
+	 * won't ask Knot for a class which has already been defined, so otherwise a preloaded class would be missing from
+	 * the next trace, and only be preloaded on every other launch. Classes which the preloader defines on its own (such
+	 * as super classes) are left for the game to record. */
+	void recordPreloaded(String name) {
+		if (previousSet.contains(name)) {
+			record(name);
+		}
+	}
+
+	private void store() {
+		List<String> names;
+		synchronized (recorded) {
+			names = new ArrayList<>(recorded);
+		}
+
+		if (names.isEmpty() || names.equals(previous)) {
+			return;
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(temp, names, StandardCharsets.UTF_8);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to write the class load trace " + file, e);
+		}
+	}
+
+	private static final class Prefetched {
+		final Path path;
+		final byte[] bytes;
+
+		Prefetched(Path path, byte[] bytes) {
+			this.path = path;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -40,6 +40,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.CodeSource;
 import java.security.SecureClassLoader;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
@@ -66,6 +67,7 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 	private final QuiltClassPath paths = new QuiltClassPath();
 	private final DynamicURLClassLoader fakeLoader;
 	private final DynamicURLClassLoader minimalLoader;
+	private final KnotResourceFilter minimalFilter = new KnotResourceFilter();
 	private final ClassLoader originalLoader;
 	private final KnotClassDelegate delegate;
 
@@ -114,6 +116,11 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 		return url;
 	}
 
+	@Override
+	public Path findResourcePath(String name) {
+		return paths.findResource(name);
+	}
+
 	@Override
 	public URL findResource(String name) {
 		Objects.requireNonNull(name);
@@ -127,6 +134,10 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 			}
 		}
 
+		if (!minimalFilter.mightContain(name)) {
+			return null;
+		}
+
 		return minimalLoader.getResource(name);
 	}
 
@@ -154,7 +165,7 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 			}
 		}
 
-		InputStream inputStream = minimalLoader.getResourceAsStream(name);
+		InputStream inputStream = minimalFilter.mightContain(name) ? minimalLoader.getResourceAsStream(name) : null;
 
 		if (inputStream == null) {
 			inputStream = originalLoader.getResourceAsStream(name);
@@ -168,7 +179,7 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 		Objects.requireNonNull(name);
 
 		List<Path> fromPaths = paths.getResources(name);
-		Enumeration<URL> first = minimalLoader.getResources(name);
+		Enumeration<URL> first = minimalFilter.mightContain(name) ? minimalLoader.getResources(name) : Collections.emptyEnumeration();
 		Enumeration<URL> second = originalLoader.getResources(name);
 		return new Enumeration<URL>() {
 			Iterator<Path> iterator = fromPaths.iterator();
@@ -269,6 +280,7 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 	@Override
 	public void addURL(URL url) {
 		fakeLoader.addURL(url);
+		minimalFilter.add(url);
 		minimalLoader.addURL(url);
 	}
 
@@ -284,6 +296,7 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 		fakeLoader.addURL(asUrl);
 		if (root.getFileName() != null && root.getFileName().toString().endsWith(".jar")) {
 			// TODO: Perhaps open it in a more efficient manor?
+			minimalFilter.add(asUrl);
 			minimalLoader.addURL(asUrl);
 		} else {
 			paths.addRoot(root);
@@ -296,7 +309,7 @@ class KnotClassLoader extends SecureClassLoader implements KnotClassLoaderInterf
 		if (path != null) {
 			return Files.newInputStream(path);
 		}
-		InputStream inputStream = minimalLoader.getResourceAsStream(classFile);
+		InputStream inputStream = minimalFilter.mightContain(classFile) ? minimalLoader.getResourceAsStream(classFile) : null;
 
 		if (inputStream == null && allowFromParent) {
 			inputStream = originalLoader.getResourceAsStream(classFile);
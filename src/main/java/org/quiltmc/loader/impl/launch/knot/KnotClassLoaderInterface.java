@@ -21,7 +21,9 @@ import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Path;
 
+import org.jetbrains.annotations.Nullable;
 import org.quiltmc.loader.api.ModContainer;
+import org.quiltmc.loader.impl.filesystem.QuiltClassPath;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
 
@@ -35,5 +37,10 @@ interface KnotClassLoaderInterface extends KnotBaseClassLoader {
 	void addPath(Path root, ModContainer mod, URL origin);
 	URL getResource(String name);
 	URL getResource(String name, boolean allowFromParent);
+
+	/** @return The path of the given resource, if it's on the {@link QuiltClassPath} of this loader. This doesn't check
+	 *         the parent loader, or any URLs added to this loader. */
+	@Nullable
+	Path findResourcePath(String name);
 	InputStream getResourceAsStream(String filename, boolean allowFromParent) throws IOException;
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.util.Map;
+
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
+
+/** Class loading statistics for Knot, registered as {@value KnotClassLoadMetrics#OBJECT_NAME} when
+ * {@link SystemProperties#CLASS_LOAD_METRICS_JMX} is set. All times are in nanoseconds, and exclude the time spent
+ * loading other classes at the same time (for example super classes, which are loaded while defining a class). */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+public interface KnotClassLoadingMXBean {
+
+	long getClassCount();
+
+	long getByteCount();
+
+	long getTotalNanos();
+
+	/** @return Statistics for every mod, keyed by mod id. Classes which don't belong to a mod use
+	 *         {@value KnotClassLoadMetrics#UNKNOWN_MOD}. */
+	Map<String, ModStats> getModStats();
+
+	/** Resets every statistic to zero. */
+	void reset();
+
+	/** Statistics for a single mod. Times are in nanoseconds. */
+	final class ModStats {
+		private final String modId;
+		private final long classCount, byteCount;
+		private final long lookupNanos, readNanos, mixinNanos, defineNanos;
+
+		public ModStats(String modId, long classCount, long byteCount, long lookupNanos, long readNanos, long mixinNanos,
+			long defineNanos) {
+			this.modId = modId;
+			this.classCount = classCount;
+			this.byteCount = byteCount;
+			this.lookupNanos = lookupNanos;
+			this.readNanos = readNanos;
+			this.mixinNanos = mixinNanos;
+			this.defineNanos = defineNanos;
+		}
+
+		public String getModId() {
+			return modId;
+		}
+
+		public long getClassCount() {
+			return classCount;
+		}
+
+		public long getByteCount() {
+			return byteCount;
+		}
+
+		/** @return The time spent finding the class file. */
+		public long getLookupNanos() {
+			return lookupNanos;
+		}
+
+		/** @return The time spent reading the class file, and running every transformer except mixin. */
+		public long getReadNanos() {
+			return readNanos;
+		}
+
+		public long getMixinNanos() {
+			return mixinNanos;
+		}
+
+		/** @return The time spent in {@link ClassLoader#defineClass}, and checking the package. */
+		public long getDefineNanos() {
+			return defineNanos;
+		}
+
+		@Override
+		public String toString() {
+			return modId + ": " + classCount + " classes, " + byteCount + " bytes, lookup " + lookupNanos / 1_000_000
+				+ "ms, read " + readNanos / 1_000_000 + "ms, mixin " + mixinNanos / 1_000_000 + "ms, define "
+				+ defineNanos / 1_000_000 + "ms";
+		}
+	}
+}
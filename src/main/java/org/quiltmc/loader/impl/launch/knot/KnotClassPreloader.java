@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Loads classes on background threads once mixin has finished initialising, so they're already transformed and
+ * defined by the time the game asks for them. Classes are loaded with {@link Class#forName(String, boolean,
+ * ClassLoader)} without being initialised, so this goes through the same locking and transformation as the game
+ * loading them itself. Classes defined on these threads are only recorded in the {@link KnotClassLoadTrace} if the
+ * previous trace already had them, since the game never asks Knot for them again once they're defined. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class KnotClassPreloader {
+
+	private final ClassLoader loader;
+	private final List<String> names;
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final AtomicInteger loaded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger runningThreads;
+	private final long start = System.nanoTime();
+
+	private KnotClassPreloader(ClassLoader loader, List<String> names, int threads) {
+		this.loader = loader;
+		this.names = names;
+		this.runningThreads = new AtomicInteger(threads);
+	}
+
+	static void start(ClassLoader loader, List<String> names, int threads) {
+		if (names.isEmpty() || threads <= 0) {
+			return;
+		}
+
+		Log.debug(LogCategory.KNOT, "Preloading " + names.size() + " classes on " + threads + " threads");
+		KnotClassPreloader preloader = new KnotClassPreloader(loader, names, threads);
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new PreloaderThread(preloader::run, "QuiltLoader Class Preloader #" + i);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			thread.start();
+		}
+	}
+
+	/** @return True if the current thread is preloading classes, rather than the game loading them. */
+	static boolean isPreloading() {
+		return Thread.currentThread() instanceof PreloaderThread;
+	}
+
+	private void run() {
+		int index;
+		while ((index = nextIndex.getAndIncrement()) < names.size()) {
+			try {
+				Class.forName(names.get(index), false, loader);
+				loaded.incrementAndGet();
+			} catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+				// The class is probably gone (or hidden) since the list was made,
+				// and if not then the game will report it when it loads the class itself
+				failed.incrementAndGet();
+			}
+		}
+
+		if (runningThreads.decrementAndGet() == 0) {
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			Log.debug(LogCategory.KNOT, "Preloaded " + loaded + " classes (" + failed + " failed) in " + millis + "ms");
+		}
+	}
+
+	private static final class PreloaderThread extends Thread {
+		PreloaderThread(Runnable task, String name) {
+			super(task, name);
+		}
+	}
+}
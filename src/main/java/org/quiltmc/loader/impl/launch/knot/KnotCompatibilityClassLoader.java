@@ -127,6 +127,12 @@ class KnotCompatibilityClassLoader extends URLClassLoader implements KnotClassLo
 		}
 	}
 
+	@Override
+	public Path findResourcePath(String name) {
+		// Everything is added as a URL
+		return null;
+	}
+
 	@Override
 	public InputStream getResourceAsStream(String classFile, boolean allowFromParent) throws IOException {
 		if (!allowFromParent) {
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** A bloom filter over the names of every entry in the jars added to a {@link URLClassLoader}, so lookups for
+ * resources which definitely aren't there can skip asking it (which opens and checks every jar in turn).
+ * <p>
+ * Jars are only read when the filter is next queried. Every jar added since the previous query shares a single
+ * filter, so adding jars later doesn't require the earlier ones to be read again. If a URL is added which can't be
+ * listed (like a folder, or a jar with a "Class-Path" manifest attribute) then the filter gives up and reports every
+ * name as possibly present. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class KnotResourceFilter {
+
+	private static final int BITS_PER_ENTRY = 10;
+	private static final int HASH_COUNT = 7;
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	private final List<URL> pending = new ArrayList<>();
+	private volatile boolean hasPending;
+	private volatile boolean unknown = Boolean.getBoolean(SystemProperties.DISABLE_KNOT_RESOURCE_FILTER);
+	private volatile long[][] filters = new long[0][];
+
+	/** Must be called before the URL is added to the class loader. */
+	void add(URL url) {
+		synchronized (pending) {
+			pending.add(url);
+			hasPending = true;
+		}
+	}
+
+	/** @return false if the class loader definitely doesn't contain the given resource. */
+	boolean mightContain(String name) {
+		if (hasPending) {
+			readPending();
+		}
+
+		if (unknown) {
+			return true;
+		}
+
+		long hash = hash(name);
+		for (long[] filter : filters) {
+			if (mightContain(filter, hash)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void readPending() {
+		synchronized (pending) {
+			if (!hasPending) {
+				return;
+			}
+
+			List<String> names = new ArrayList<>();
+			for (URL url : pending) {
+				if (unknown) {
+					break;
+				}
+				if (!list(url, names)) {
+					Log.debug(LogCategory.KNOT, "Unable to filter resource lookups, since " + url + " can't be listed");
+					unknown = true;
+				}
+			}
+			pending.clear();
+
+			if (!unknown && !names.isEmpty()) {
+				long[] filter = new long[(names.size() * BITS_PER_ENTRY + 63) / 64];
+				for (String name : names) {
+					add(filter, hash(name));
+				}
+				long[][] next = Arrays.copyOf(filters, filters.length + 1);
+				next[filters.length] = filter;
+				filters = next;
+			}
+			hasPending = false;
+		}
+	}
+
+	/** Adds every name that {@link URLClassLoader} could find in the given URL to the list.
+	 *
+	 * @return false if the URL can't be listed. */
+	private static boolean list(URL url, List<String> names) {
+		if (!"file".equals(url.getProtocol()) || url.getPath().endsWith("/")) {
+			return false;
+		}
+
+		File file;
+		try {
+			file = new File(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return false;
+		}
+
+		if (!file.exists()) {
+			// URLClassLoader ignores missing jars
+			return true;
+		}
+
+		try (JarFile jar = new JarFile(file, false)) {
+			Manifest manifest = jar.getManifest();
+			if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+				// URLClassLoader would search these jars as well
+				return false;
+			}
+
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				names.add(name);
+				if (name.endsWith("/")) {
+					// JarFile finds folders without the trailing slash too
+					names.add(name.substring(0, name.length() - 1));
+				}
+				if (name.startsWith(VERSIONS_PREFIX)) {
+					// Multi-release jars can return versioned entries for the base name
+					int end = name.indexOf('/', VERSIONS_PREFIX.length());
+					if (end > 0) {
+						names.add(name.substring(end + 1));
+					}
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void add(long[] filter, long hash) {
+		long bitCount = filter.length * 64L;
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+			filter[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	private static boolean mightContain(long[] filter, long hash) {
+		long bitCount = filter.length * 64L;
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+			if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** 64-bit FNV-1a over the chars of the name, followed by the murmur3 finaliser to spread the bits out. */
+	private static long hash(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash ^= name.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -46,18 +46,35 @@ import org.spongepowered.asm.util.ReEntranceLock;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 @QuiltLoaderInternal(QuiltLoaderInternalType.LEGACY_EXPOSED)
 public class MixinServiceKnot implements IMixinService, IClassProvider, IClassBytecodeProvider, ITransformerProvider, IClassTracker {
 	static IMixinTransformer transformer;
 
+	/** The maximum number of classes kept in {@link #CLASS_CACHE}. */
+	private static final int CLASS_CACHE_SIZE = 2048;
+
+	/** Classes read by mixin while it's initialising, since it asks for the same classes many times while preparing
+	 * configs (mixin classes, targets, and hierarchy lookups). Keyed by {@link #getCacheKey(String, boolean)}. */
+	private static final Map<String, SoftReference<CachedClass>> CLASS_CACHE = new LinkedHashMap<String, SoftReference<CachedClass>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SoftReference<CachedClass>> eldest) {
+			return size() > CLASS_CACHE_SIZE;
+		}
+	};
+
+	private static volatile boolean classCacheEnabled = true;
+
 	private final ReEntranceLock lock;
 
 	public MixinServiceKnot() {
@@ -69,6 +86,14 @@ public class MixinServiceKnot implements IMixinService, IClassProvider, IClassBy
 	}
 
 	public byte[] getClassBytes(String name, boolean runTransformers) throws ClassNotFoundException, IOException {
+		if (classCacheEnabled) {
+			return getCachedClass(name, runTransformers).bytes.clone();
+		}
+
+		return readClassBytes(name, runTransformers);
+	}
+
+	private static byte[] readClassBytes(String name, boolean runTransformers) throws ClassNotFoundException, IOException {
 		byte[] classBytes = QuiltLauncherBase.getLauncher().getClassByteArray(name, runTransformers);
 
 		if (classBytes != null) {
@@ -85,12 +110,75 @@ public class MixinServiceKnot implements IMixinService, IClassProvider, IClassBy
 
 	@Override
 	public ClassNode getClassNode(String name, boolean runTransformers) throws ClassNotFoundException, IOException {
-		ClassReader reader = new ClassReader(getClassBytes(name, runTransformers));
+		if (!classCacheEnabled) {
+			return readClassNode(readClassBytes(name, runTransformers));
+		}
+
+		// Mixin modifies the nodes it's given, so every caller gets its own copy
+		ClassNode cached = getCachedClass(name, runTransformers).getNode();
+		ClassNode node = new ClassNode();
+		synchronized (cached) {
+			cached.accept(node);
+		}
+		return node;
+	}
+
+	private static ClassNode readClassNode(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
 		ClassNode node = new ClassNode();
 		reader.accept(node, 0);
 		return node;
 	}
 
+	private static CachedClass getCachedClass(String name, boolean runTransformers) throws ClassNotFoundException, IOException {
+		String key = getCacheKey(name, runTransformers);
+		CachedClass cached;
+		synchronized (CLASS_CACHE) {
+			SoftReference<CachedClass> ref = CLASS_CACHE.get(key);
+			cached = ref == null ? null : ref.get();
+		}
+
+		if (cached == null) {
+			cached = new CachedClass(readClassBytes(name, runTransformers));
+			synchronized (CLASS_CACHE) {
+				if (classCacheEnabled) {
+					CLASS_CACHE.put(key, new SoftReference<>(cached));
+				}
+			}
+		}
+
+		return cached;
+	}
+
+	private static String getCacheKey(String name, boolean runTransformers) {
+		return (runTransformers ? "transformed:" : "raw:") + name.replace('/', '.');
+	}
+
+	/** Clears (and stops using) the class cache. Called once mixin has finished initialising, since most classes are
+	 * only read once after that. */
+	static void clearClassCache() {
+		synchronized (CLASS_CACHE) {
+			classCacheEnabled = false;
+			CLASS_CACHE.clear();
+		}
+	}
+
+	private static final class CachedClass {
+		final byte[] bytes;
+		private ClassNode node;
+
+		CachedClass(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		synchronized ClassNode getNode() {
+			if (node == null) {
+				node = readClassNode(bytes);
+			}
+			return node;
+		}
+	}
+
 	@Override
 	public URL[] getClassPath() {
 		// Mixin 0.7.x only uses getClassPath() to find itself; we implement CodeSource correctly,
@@ -43,56 +43,24 @@ abstract class MainThreadTask {
 		}
 	}
 
-	static final class ScanFolderAsModTask extends MainThreadTask {
-		final Path folder;
-		final ModLocationImpl location;
-		final PluginGuiTreeNode guiNode;
-
-		public ScanFolderAsModTask(Path folder, ModLocationImpl location, PluginGuiTreeNode guiNode) {
-			this.folder = folder;
-			this.location = location;
-			this.guiNode = guiNode;
-		}
-
-		@Override
-		void execute(QuiltPluginManagerImpl manager) {
-			manager.scanFolderAsMod(folder, location, guiNode);
-		}
-	}
-
-	static final class ScanZipTask extends MainThreadTask {
-		final Path zipFile;
-		final Path zipRoot;
-		final ModLocationImpl location;
-		final PluginGuiTreeNode guiNode;
-
-		public ScanZipTask(Path zipFile, Path zipRoot, ModLocationImpl location, PluginGuiTreeNode guiNode) {
-			this.zipFile = zipFile;
-			this.zipRoot = zipRoot;
-			this.location = location;
-			this.guiNode = guiNode;
-		}
-
-		@Override
-		void execute(QuiltPluginManagerImpl manager) {
-			manager.scanZip(zipFile, zipRoot, location, guiNode);
-		}
-	}
-
-	static final class ScanUnknownFileTask extends MainThreadTask {
+	static final class ScanModFileTask extends MainThreadTask {
 		final Path file;
+		final QuiltPluginTaskImpl<QuiltPluginManagerImpl.ReadModFile> read;
 		final ModLocationImpl location;
 		final PluginGuiTreeNode guiNode;
 
-		public ScanUnknownFileTask(Path file, ModLocationImpl location, PluginGuiTreeNode guiNode) {
+		public ScanModFileTask(Path file, QuiltPluginTaskImpl<QuiltPluginManagerImpl.ReadModFile> read,
+			ModLocationImpl location, PluginGuiTreeNode guiNode) {
 			this.file = file;
+			this.read = read;
 			this.location = location;
 			this.guiNode = guiNode;
 		}
 
 		@Override
 		void execute(QuiltPluginManagerImpl manager) {
-			manager.scanUnknownFile(file, location, guiNode);
+			// Waits for the worker thread to finish reading this file
+			manager.scanModFile0(file, location, guiNode, read.future.join());
 		}
 	}
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.impl.filesystem.QuiltZipFileSystem;
+import org.quiltmc.loader.impl.util.HashUtil;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Stores every compressed jar-in-jar opened during mod discovery as a plain file in the cache folder, so later
+ * launches can read it directly (or memory map it) rather than inflating it from its containing jar again. Jars stored
+ * without compression are skipped, since {@link QuiltZipFileSystem} already reads those directly from their containing
+ * jar. Each file is keyed by the absolute path, size, and last modified time of the real file it was found in, and the
+ * path of the jar inside each containing jar. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class NestedJarCache {
+
+	private final Path folder;
+	private final Set<String> used = ConcurrentHashMap.newKeySet();
+
+	NestedJarCache(Path folder) {
+		this.folder = folder;
+	}
+
+	/** @param zip The nested jar.
+	 * @param realFile The file on the default file system which contains the nested jar.
+	 * @param innerPaths The path of each jar inside the previous one, starting with the one inside realFile, and ending
+	 *            with zip.
+	 * @return A file on the default file system with the same contents as zip, or null if it couldn't be cached (or
+	 *         doesn't need to be). */
+	@Nullable
+	Path get(Path zip, Path realFile, List<String> innerPaths) {
+		if (QuiltZipFileSystem.canReadInPlace(zip)) {
+			return null;
+		}
+
+		StringBuilder identity = new StringBuilder();
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(realFile, BasicFileAttributes.class);
+			identity.append(realFile.toAbsolutePath());
+			identity.append(' ').append(attrs.size());
+			identity.append(' ').append(attrs.lastModifiedTime().toMillis());
+		} catch (IOException e) {
+			return null;
+		}
+		for (String inner : innerPaths) {
+			identity.append('!').append(inner);
+		}
+
+		String name = HashUtil.hashToString(HashUtil.computeHash(identity.toString())) + ".jar";
+		used.add(name);
+		Path file = folder.resolve(name);
+
+		Path temp = null;
+		try {
+			if (Files.isRegularFile(file) && Files.size(file) == Files.size(zip)) {
+				return file;
+			}
+
+			Files.createDirectories(folder);
+			temp = Files.createTempFile(folder, name, ".tmp");
+			try (InputStream from = Files.newInputStream(zip)) {
+				Files.copy(from, temp, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException e) {
+				// The old file might be open in another instance, so just replace it on the next launch
+				Files.delete(temp);
+				return null;
+			}
+			return file;
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to cache the nested jar " + zip + " from " + realFile, e);
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e2) {
+					e.addSuppressed(e2);
+				}
+			}
+			return null;
+		}
+	}
+
+	/** Deletes every cached jar which wasn't used by this launch. */
+	void prune() {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+			for (Path file : stream) {
+				if (used.contains(file.getFileName().toString())) {
+					continue;
+				}
+				try {
+					Files.delete(file);
+				} catch (IOException e) {
+					// Probably still open in another instance
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// Nothing was cached
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to prune the nested jar cache " + folder, e);
+		}
+	}
+}
@@ -41,13 +41,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.zip.ZipException;
@@ -141,7 +138,7 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 
 	private final Path gameDir, configDir, modsDir, cacheDir;
 	private final Path absGameDir, absModsDir;
-	final Map<Path, Path> pathParents = new HashMap<>();
+	final Map<Path, Path> pathParents = new ConcurrentHashMap<>();
 	final Map<Path, String> customPathNames = new HashMap<>();
 	final Map<String, Integer> allocatedFileSystemIndices = new HashMap<>();
 	Map<Path, List<List<Path>>> sourcePaths;
@@ -171,11 +168,12 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 
 	final Sat4jWrapper solver = new Sat4jWrapper();
 
-	/** Set to null if {@link QuiltLoaderConfig#singleThreadedLoading} is true, otherwise this will be a useful
-	 * value. */
-	private final ExecutorService executor;
+	/** Runs tasks on worker threads, unless {@link QuiltLoaderConfig#singleThreadedLoading} is true. */
+	private final QuiltPluginTaskScheduler scheduler;
 
-	final Queue<MainThreadTask> mainThreadTasks;
+	/** Null if nested jars aren't cached. */
+	@Nullable
+	private final NestedJarCache nestedJarCache;
 
 	public final GuiManagerImpl guiManager = new GuiManagerImpl();
 	/** The root tree node for the "files" tab. */
@@ -212,13 +210,19 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 
 		this.hasher = new FileHasherImpl(this::getParent);
 
-		this.executor = config.singleThreadedLoading ? null : Executors.newCachedThreadPool();
-		this.mainThreadTasks = config.singleThreadedLoading ? new ArrayDeque<>() : new ConcurrentLinkedQueue<>();
+		this.scheduler = new QuiltPluginTaskScheduler(config.singleThreadedLoading);
+
+		if (simulationOnly || Boolean.getBoolean(SystemProperties.DISABLE_NESTED_JAR_CACHE)) {
+			this.nestedJarCache = null;
+		} else {
+			Path folder = cacheDir.resolve(QuiltLoaderImpl.CACHE_DIR_NAME).resolve("nested-jars");
+			this.nestedJarCache = new NestedJarCache(folder);
+		}
 
 		customPathNames.put(gameDir, "<game>");
 		customPathNames.put(modsDir, "<mods>");
 
-		mainThreadTasks.add(new MainThreadTask.ScanModFolderTask(modsDir, QUILT_ID));
+		addMainThreadTask(new MainThreadTask.ScanModFolderTask(modsDir, QUILT_ID));
 
 		theQuiltPlugin = new StandardQuiltPlugin();
 		theFabricPlugin = new StandardFabricPlugin();
@@ -237,20 +241,15 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 
 	@Override
 	public QuiltPluginTask<Path> loadZip(Path zip) {
-		if (config.singleThreadedLoading) {
-			try {
-				return QuiltPluginTask.createFinished(loadZip0(zip));
-			} catch (IOException | NonZipException e) {
-				return QuiltPluginTask.createFailed(e);
-			}
-		}
 		return submit(null, () -> loadZip0(zip));
 	}
 
 	private Path loadZip0(Path zip) throws IOException, NonZipException {
 		String name = zip.getFileName().toString();
 		try {
-			QuiltZipPath qRoot = new QuiltZipFileSystem(name, zip, "").getRoot();
+			Path source = getZipSource(zip);
+			// Copies in the nested jar cache are never modified after they've been written
+			QuiltZipPath qRoot = new QuiltZipFileSystem(name, source, "", source != zip).getRoot();
 			pathParents.put(qRoot, zip);
 			return qRoot;
 		} catch (IOException e) {
@@ -263,6 +262,31 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 		}
 	}
 
+	/** @return The file to read the given zip from - either the zip itself, or a copy stored in
+	 *         {@link #nestedJarCache}. */
+	private Path getZipSource(Path zip) {
+		if (nestedJarCache == null || zip.getFileSystem() == FileSystems.getDefault()) {
+			return zip;
+		}
+
+		List<String> innerPaths = new ArrayList<>();
+		Path next = zip;
+		while (next.getFileSystem() != FileSystems.getDefault()) {
+			if (!(next instanceof QuiltZipPath)) {
+				return zip;
+			}
+			innerPaths.add(0, next.toString());
+			next = pathParents.get(next.getRoot());
+			if (next == null) {
+				// Not opened by loadZip, so we don't know which file it came from
+				return zip;
+			}
+		}
+
+		Path cached = nestedJarCache.get(zip, next, innerPaths);
+		return cached != null ? cached : zip;
+	}
+
 	@Override
 	public Path createMemoryFileSystem(String name) {
 		return new QuiltMemoryFileSystem.ReadWrite(name, true).getRoot();
@@ -725,7 +749,11 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 		final QuiltReport report;
 
 		outer: try {
-			return runInternal(scanClasspath);
+			ModSolveResultImpl result = runInternal(scanClasspath);
+			if (nestedJarCache != null) {
+				nestedJarCache.prune();
+			}
+			return result;
 		} catch (ModSolvingError e) {
 			e.printStackTrace();
 			report = new QuiltReport("Quilt Loader: Crash Report");
@@ -763,6 +791,8 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 				.appendThrowable(t)
 				.addOpenQuiltSupportButton();
 			break outer;
+		} finally {
+			scheduler.shutdown();
 		}
 
 		// It's arguably the most important version - if anything goes wrong while writing this report
@@ -1249,17 +1279,9 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 		ModSolveResultImpl result = null;
 
 		while (true) {
-			if (config.singleThreadedLoading) {
-				MainThreadTask task;
-				while ((task = mainThreadTasks.poll()) != null) {
-					task.execute(this);
-				}
-
-				// TODO: Also wait for GUI tasks
+			runTasks();
 
-			} else {
-				throw new AbstractMethodError("// TODO: Wait for scheduled tasks while running main thread tasks!");
-			}
+			// TODO: Also wait for GUI tasks
 
 			switch (step) {
 				case START: {
@@ -1646,12 +1668,22 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 	// # Tasks #
 	// #########
 
-	<V> QuiltPluginTask<V> submit(BasePluginContext ctx, Callable<V> task) {
-		throw new AbstractMethodError("// TODO: Implement plugin tasks!");
+	<V> QuiltPluginTaskImpl<V> submit(BasePluginContext ctx, Callable<V> task) {
+		return scheduler.submit(task);
+	}
+
+	<V> QuiltPluginTaskImpl<V> submitAfter(BasePluginContext ctx, Callable<V> task, QuiltPluginTask<?>... deps) {
+		return scheduler.submitAfter(task, deps);
 	}
 
-	<V> QuiltPluginTask<V> submitAfter(BasePluginContext ctx, Callable<V> task, QuiltPluginTask<?>... deps) {
-		throw new AbstractMethodError("// TODO: Implement plugin tasks!");
+	void addMainThreadTask(MainThreadTask task) {
+		scheduler.addMainThreadTask(() -> task.execute(this));
+	}
+
+	/** Runs every {@link MainThreadTask} (including ones added while this is running), and waits until every submitted
+	 * task has finished. */
+	private void runTasks() throws ModSolvingError {
+		scheduler.runTasks();
 	}
 
 	// ########
@@ -1676,13 +1708,9 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 			plugin.onModFolderAdded(path);
 		}
 
-		if (config.singleThreadedLoading) {
-			scanModFolder0(path, folderRoot);
-		} else {
-			executor.submit(() -> {
-				scanModFolder0(path, folderRoot);
-			});
-		}
+		// The folder is walked on the main thread, since it creates the gui nodes in order.
+		// Each file is then read by scanModFile
+		scanModFolder0(path, folderRoot);
 	}
 
 	protected boolean isTest() {
@@ -1881,24 +1909,61 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 			return;
 		}
 
-		if (config.singleThreadedLoading) {
-			scanModFile0(file, location, guiNode);
+		if (scheduler.isSingleThreaded()) {
+			scanModFile0(file, location, guiNode, readModFile(file));
 		} else {
-			executor.submit(() -> {
-				scanModFile0(file, location, guiNode);
-			});
+			// The file is read on a worker thread, but the rest of the scan happens on the main thread
+			// in the order the files were found, so the result doesn't depend on which file was read first
+			QuiltPluginTaskImpl<ReadModFile> read = submit(null, () -> readModFile(file));
+			addMainThreadTask(new MainThreadTask.ScanModFileTask(file, read, location, guiNode));
 		}
 	}
 
-	private void scanModFile0(Path file, ModLocationImpl location, PluginGuiTreeNode guiNode) {
+	/** The result of the parts of {@link #scanModFile} which only touch the file system, so can run on any thread. */
+	static final class ReadModFile {
+		boolean hidden;
+		IOException hiddenException;
+		boolean directory;
+		Path zipRoot;
+		IOException zipException;
+		boolean nonZip;
+	}
+
+	private ReadModFile readModFile(Path file) {
+		ReadModFile read = new ReadModFile();
 		try {
-			if (Files.isHidden(file)) {
-				guiNode.sortPrefix("disabled");
-				guiNode.subIcon(guiNode.manager().iconDisabled());
-				guiNode.addChild(QuiltLoaderText.translate("gui.text.file_hidden"));// TODO translate
-				return;
-			}
+			read.hidden = Files.isHidden(file);
 		} catch (IOException e) {
+			read.hiddenException = e;
+			return read;
+		}
+
+		if (read.hidden) {
+			return read;
+		}
+
+		read.directory = FasterFiles.isDirectory(file);
+		if (!read.directory) {
+			try {
+				read.zipRoot = loadZip0(file);
+			} catch (IOException e) {
+				read.zipException = e;
+			} catch (NonZipException e) {
+				read.nonZip = true;
+			}
+		}
+		return read;
+	}
+
+	/** Called by {@link MainThreadTask.ScanModFileTask} */
+	void scanModFile0(Path file, ModLocationImpl location, PluginGuiTreeNode guiNode, ReadModFile read) {
+		if (read.hidden) {
+			guiNode.sortPrefix("disabled");
+			guiNode.subIcon(guiNode.manager().iconDisabled());
+			guiNode.addChild(QuiltLoaderText.translate("gui.text.file_hidden"));// TODO translate
+			return;
+		} else if (read.hiddenException != null) {
+			IOException e = read.hiddenException;
 
 			QuiltLoaderText title = QuiltLoaderText.translate("gui.text.ioexception_files_hidden", e.getMessage());
 			QuiltDisplayedError error = reportError(theQuiltPluginContext, title);
@@ -1914,28 +1979,29 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 			return;
 		}
 
-		if (FasterFiles.isDirectory(file)) {
-			if (this.config.singleThreadedLoading) {
-				scanFolderAsMod(file, location, guiNode);
-			} else {
-				mainThreadTasks.add(new MainThreadTask.ScanFolderAsModTask(file, location, guiNode));
-			}
+		if (read.directory) {
+			scanFolderAsMod(file, location, guiNode);
+			return;
+		}
+
+		if (read.nonZip) {
+			guiNode.mainIcon(QuiltLoaderGui.iconUnknownFile());
+			scanUnknownFile(file, location, guiNode);
 			return;
 		}
 
 		try {
-			Path zipRoot = loadZip0(file);
+			if (read.zipException != null) {
+				throw read.zipException;
+			}
+
 			if (file.getFileName().toString().endsWith(".jar")) {
 				guiNode.mainIcon(guiNode.manager().iconJarFile());
 			} else {
 				guiNode.mainIcon(guiNode.manager().iconZipFile());
 			}
 
-			if (this.config.singleThreadedLoading) {
-				scanZip(file, zipRoot, location, guiNode);
-			} else {
-				mainThreadTasks.add(new MainThreadTask.ScanZipTask(file, zipRoot, location, guiNode));
-			}
+			scanZip(file, read.zipRoot, location, guiNode);
 
 		} catch (ZipException e) {
 
@@ -1969,19 +2035,9 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 			guiNode.addChild(QuiltLoaderText.translate("gui.error.ioexception", e.getMessage()))// TODO: translate
 				.setError(e, error);
 
-		} catch (NonZipException e) {
-
-			guiNode.mainIcon(QuiltLoaderGui.iconUnknownFile());
-
-			if (this.config.singleThreadedLoading) {
-				scanUnknownFile(file, location, guiNode);
-			} else {
-				mainThreadTasks.add(new MainThreadTask.ScanUnknownFileTask(file, location, guiNode));
-			}
 		}
 	}
 
-	/** Called by {@link MainThreadTask.ScanZipTask} */
 	void scanZip(Path zipFile, Path zipRoot, ModLocationImpl location, PluginGuiTreeNode guiNode) {
 
 		try {
@@ -2019,7 +2075,6 @@ public class QuiltPluginManagerImpl implements QuiltPluginManager {
 		}
 	}
 
-	/** Called by {@link MainThreadTask.ScanUnknownFileTask} */
 	void scanUnknownFile(Path file, ModLocationImpl location, PluginGuiTreeNode guiNode) {
 
 		try {
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.plugin;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.api.plugin.QuiltPluginTask;
+import org.quiltmc.loader.impl.discovery.ModSolvingError;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+
+/** Runs the tasks submitted by plugins (and by {@link QuiltPluginManagerImpl} itself). Submitted tasks run on a pool
+ * of worker threads, or immediately on the submitting thread if loading is single threaded. Main thread tasks always
+ * run on the thread that calls {@link #runTasks()}, in the order they were added. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class QuiltPluginTaskScheduler {
+
+	/** Null if loading is single threaded. */
+	@Nullable
+	private final ExecutorService executor;
+
+	private final Queue<Runnable> mainThreadTasks;
+
+	/** Notified whenever a task submitted to {@link #executor} finishes, or a main thread task is added. */
+	private final Object taskLock = new Object();
+
+	/** The number of tasks submitted to {@link #executor} that haven't finished yet. Guarded by {@link #taskLock}. */
+	private int pendingTasks = 0;
+
+	QuiltPluginTaskScheduler(boolean singleThreaded) {
+		this.executor = singleThreaded ? null : createExecutor();
+		this.mainThreadTasks = singleThreaded ? new ArrayDeque<>() : new ConcurrentLinkedQueue<>();
+	}
+
+	private static ExecutorService createExecutor() {
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+			Thread thread = new Thread(task, "QuiltLoader Worker #" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	boolean isSingleThreaded() {
+		return executor == null;
+	}
+
+	/** Stops the worker threads once every task has finished. Tasks submitted after this run on the submitting
+	 * thread. */
+	void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	<V> QuiltPluginTaskImpl<V> submit(Callable<V> task) {
+		QuiltPluginTaskImpl<V> result = new QuiltPluginTaskImpl<>();
+		if (executor == null) {
+			runTask(result, task);
+		} else {
+			synchronized (taskLock) {
+				pendingTasks++;
+			}
+			execute(result, task);
+		}
+		return result;
+	}
+
+	<V> QuiltPluginTaskImpl<V> submitAfter(Callable<V> task, QuiltPluginTask<?>... deps) {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[deps.length];
+		for (int i = 0; i < deps.length; i++) {
+			if (!(deps[i] instanceof QuiltPluginTaskImpl)) {
+				throw new IllegalArgumentException(
+					"Unknown task " + deps[i] + " - only tasks from submit() are allowed!"
+				);
+			}
+			futures[i] = ((QuiltPluginTaskImpl<?>) deps[i]).future;
+		}
+
+		QuiltPluginTaskImpl<V> result = new QuiltPluginTaskImpl<>();
+		if (executor == null) {
+			// Every task is run as soon as it's submitted, so the dependencies have already finished
+			runTask(result, task);
+		} else {
+			synchronized (taskLock) {
+				pendingTasks++;
+			}
+			// The task still runs if any of the dependencies failed
+			CompletableFuture.allOf(futures).whenComplete((v, e) -> execute(result, task));
+		}
+		return result;
+	}
+
+	/** Adds a task to be run by {@link #runTasks()}. This can be called from any thread. */
+	void addMainThreadTask(Runnable task) {
+		mainThreadTasks.add(task);
+		if (executor != null) {
+			synchronized (taskLock) {
+				taskLock.notifyAll();
+			}
+		}
+	}
+
+	private <V> void execute(QuiltPluginTaskImpl<V> result, Callable<V> task) {
+		try {
+			executor.execute(() -> runTask(result, task));
+		} catch (RejectedExecutionException e) {
+			// The executor has been shut down, so the task can only run here
+			runTask(result, task);
+		}
+	}
+
+	private <V> void runTask(QuiltPluginTaskImpl<V> result, Callable<V> task) {
+		try {
+			result.future.complete(task.call());
+		} catch (Throwable t) {
+			result.future.completeExceptionally(t);
+		} finally {
+			if (executor != null) {
+				synchronized (taskLock) {
+					pendingTasks--;
+					taskLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/** Runs every main thread task (including ones added while this is running), and waits until every submitted task
+	 * has finished. */
+	void runTasks() throws ModSolvingError {
+		while (true) {
+			Runnable task;
+			while ((task = mainThreadTasks.poll()) != null) {
+				task.run();
+			}
+
+			if (executor == null) {
+				return;
+			}
+
+			synchronized (taskLock) {
+				if (!mainThreadTasks.isEmpty()) {
+					continue;
+				}
+				if (pendingTasks == 0) {
+					return;
+				}
+				try {
+					taskLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ModSolvingError("Interrupted while waiting for " + pendingTasks + " tasks", e);
+				}
+			}
+		}
+	}
+}
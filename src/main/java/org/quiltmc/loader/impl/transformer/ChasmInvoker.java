@@ -213,7 +213,7 @@ class ChasmInvoker {
 				case REMOVED: {
 					QuiltMetadata qm = this_value_is_actually_nullable(result.getMetadata().get(QuiltMetadata.class));
 					if (qm != null) {
-						cache.hideClass(LoaderUtil.getClassNameFromTransformCache(qm.name));
+						cache.hideClass(qm.from, LoaderUtil.getClassNameFromTransformCache(qm.name));
 					} else {
 						throw new UnsupportedOperationException("Cannot remove unknown class");
 					}
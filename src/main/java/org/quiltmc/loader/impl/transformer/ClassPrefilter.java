@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.transformer;
+
+import java.nio.charset.StandardCharsets;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+
+/** Checks the raw bytes of a class to see if {@link QuiltTransformer} needs to visit it at all. Only the offsets
+ * computed by the {@link ClassReader} constructor are used - nothing here visits the class. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class ClassPrefilter {
+
+	private static final int CONSTANT_UTF8_TAG = 1;
+
+	/** Every annotation which {@link EnvironmentStrippingData} looks for. Annotation descriptors are always stored as
+	 * CONSTANT_Utf8 entries, even for invisible annotations. */
+	private static final byte[][] ENVIRONMENT_DESCRIPTORS = {
+		utf8(EnvironmentStrippingData.ENVIRONMENT_DESCRIPTOR),
+		utf8(EnvironmentStrippingData.ENVIRONMENT_INTERFACE_DESCRIPTOR),
+		utf8(EnvironmentStrippingData.ENVIRONMENT_INTERFACES_DESCRIPTOR),
+		utf8(EnvironmentStrippingData.CLIENT_ONLY_DESCRIPTOR),
+		utf8(EnvironmentStrippingData.SERVER_ONLY_DESCRIPTOR),
+	};
+
+	private ClassPrefilter() {}
+
+	private static byte[] utf8(String descriptor) {
+		// Descriptors of our own annotations are always ascii, so this is the same as modified utf8
+		return descriptor.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/** @return True if the constant pool contains any environment annotation descriptor. */
+	static boolean mightStripEnvironment(ClassReader reader, byte[] bytes) {
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			// The second slot of long and double constants doesn't have an offset
+			if (offset == 0 || bytes[offset - 1] != CONSTANT_UTF8_TAG) {
+				continue;
+			}
+			int length = reader.readUnsignedShort(offset);
+			for (byte[] descriptor : ENVIRONMENT_DESCRIPTORS) {
+				if (length == descriptor.length && equals(bytes, offset + 2, descriptor)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean equals(byte[] bytes, int offset, byte[] value) {
+		for (int i = 0; i < value.length; i++) {
+			if (bytes[offset + i] != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return True if {@link PackageAccessFixer} would change the access of the class, any of its fields or methods,
+	 *         or any of its inner classes. */
+	static boolean hasPackageAccess(ClassReader reader) {
+		if (isPackageAccess(reader.getAccess())) {
+			return true;
+		}
+
+		// Skip access_flags, this_class, and super_class, then the interfaces
+		int offset = reader.header + 6;
+		offset += 2 + 2 * reader.readUnsignedShort(offset);
+
+		// Fields, then methods
+		for (int pass = 0; pass < 2; pass++) {
+			int count = reader.readUnsignedShort(offset);
+			offset += 2;
+			for (int i = 0; i < count; i++) {
+				if (isPackageAccess(reader.readUnsignedShort(offset))) {
+					return true;
+				}
+				offset = skipAttributes(reader, offset + 6);
+			}
+		}
+
+		char[] buffer = new char[reader.getMaxStringLength()];
+		int attributeCount = reader.readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < attributeCount; i++) {
+			String name = reader.readUTF8(offset, buffer);
+			int length = reader.readInt(offset + 2);
+			if ("InnerClasses".equals(name)) {
+				int classes = reader.readUnsignedShort(offset + 6);
+				for (int c = 0; c < classes; c++) {
+					// inner_class_access_flags is the last of the four shorts in each entry
+					if (isPackageAccess(reader.readUnsignedShort(offset + 8 + c * 8 + 6))) {
+						return true;
+					}
+				}
+			}
+			offset += 6 + length;
+		}
+		return false;
+	}
+
+	private static int skipAttributes(ClassReader reader, int offset) {
+		int count = reader.readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < count; i++) {
+			offset += 6 + reader.readInt(offset + 2);
+		}
+		return offset;
+	}
+
+	/** @see PackageAccessFixer */
+	private static boolean isPackageAccess(int access) {
+		int visibility = access & 0x7;
+		return visibility != Opcodes.ACC_PRIVATE && visibility != Opcodes.ACC_PUBLIC;
+	}
+}
@@ -18,12 +18,19 @@ package org.quiltmc.loader.impl.transformer;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
@@ -33,9 +40,11 @@ import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.jetbrains.annotations.Nullable;
 import org.quiltmc.loader.api.ModInternal;
 import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
 import org.quiltmc.loader.impl.QuiltLoaderImpl;
+import org.quiltmc.loader.impl.util.HashUtil;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
 import org.quiltmc.loader.impl.util.log.Log;
@@ -54,17 +63,29 @@ public class InternalsHiderTransform {
 
 	private static final String METHOD_OWNER = Type.getInternalName(QuiltInternalExceptionUtil.class);
 
+	private static final int CONSTANT_CLASS_TAG = 7;
+
 	final Target target;
-	final Map<String, InternalValue> internalPackages = new HashMap<>();
-	final Map<String, InternalValue> internalClasses = new HashMap<>();
-	final Map<MethodKey, InternalValue> internalMethods = new HashMap<>();
-	final Map<FieldKey, InternalValue> internalFields = new HashMap<>();
+	// Concurrent since classes are scanned and transformed on multiple threads at once
+	final Map<String, InternalValue> internalPackages = new ConcurrentHashMap<>();
+	final Map<String, InternalValue> internalClasses = new ConcurrentHashMap<>();
+	final Map<MethodKey, InternalValue> internalMethods = new ConcurrentHashMap<>();
+	final Map<FieldKey, InternalValue> internalFields = new ConcurrentHashMap<>();
+
+	/** Every package referenced by a scanned class, so each class only needs to remember an int per package. */
+	private final Map<String, Integer> packageIds = new ConcurrentHashMap<>();
+	private final AtomicInteger nextPackageId = new AtomicInteger();
+	/** The ids of packages which contain something that {@link #run(ModLoadOption, byte[])} might need to check. */
+	private BitSet indexedPackages;
 
 	public InternalsHiderTransform(Target target) {
 		this.target = target;
 	}
 
-	void scanClass(ModLoadOption mod, Path file, byte[] classBytes) {
+	/** Scans the given class for {@link ModInternal} declarations.
+	 *
+	 * @return The ids of every package that the class references, for {@link #needsRun(int[])}. */
+	int[] scanClass(ModLoadOption mod, Path file, byte[] classBytes) {
 		// TODO: Replace this with full-reflect lookup!
 		ClassReader reader;
 		try {
@@ -132,6 +153,78 @@ public class InternalsHiderTransform {
 			}
 		};
 		reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return findReferencedPackages(reader, classBytes);
+	}
+
+	/** Every class that a method or field instruction refers to (as well as the super class and interfaces) is stored
+	 * as a CONSTANT_Class entry, so reading those is enough to know everything {@link #run(ModLoadOption, byte[])} would
+	 * check, without visiting any code. */
+	private int[] findReferencedPackages(ClassReader reader, byte[] classBytes) {
+		char[] buffer = new char[reader.getMaxStringLength()];
+		int[] ids = new int[16];
+		int count = 0;
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			// The second slot of long and double constants doesn't have an offset
+			if (offset == 0 || classBytes[offset - 1] != CONSTANT_CLASS_TAG) {
+				continue;
+			}
+			String name = reader.readUTF8(offset, buffer);
+			if (name.startsWith("[")) {
+				// Array owners are never checked
+				continue;
+			}
+			String pkg = getPackage(name);
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+			}
+			ids[count++] = packageIds.computeIfAbsent(pkg, p -> nextPackageId.getAndIncrement());
+		}
+		return Arrays.stream(ids, 0, count).sorted().distinct().toArray();
+	}
+
+	/** Finds every package that contains a {@link ModInternal} declaration (or a loader class), once every class has
+	 * been scanned. */
+	void indexInternalPackages() {
+		Set<String> packages = new HashSet<>(internalPackages.keySet());
+		for (String cls : internalClasses.keySet()) {
+			packages.add(getPackage(cls));
+		}
+		for (MethodKey key : internalMethods.keySet()) {
+			packages.add(getPackage(key.className));
+		}
+		for (FieldKey key : internalFields.keySet()) {
+			packages.add(getPackage(key.className));
+		}
+
+		BitSet indexed = new BitSet();
+		for (Map.Entry<String, Integer> entry : packageIds.entrySet()) {
+			String pkg = entry.getKey();
+			if (packages.contains(pkg) || pkg.equals("org/quiltmc/loader") || pkg.startsWith("org/quiltmc/loader/")) {
+				indexed.set(entry.getValue());
+			}
+		}
+		indexedPackages = indexed;
+	}
+
+	/** @param referencedPackages The packages returned by {@link #scanClass(ModLoadOption, Path, byte[])}, or null if
+	 *            the class wasn't scanned.
+	 * @return True if {@link #run(ModLoadOption, byte[])} might change the class. */
+	boolean needsRun(int @Nullable [] referencedPackages) {
+		if (referencedPackages == null || indexedPackages == null) {
+			return true;
+		}
+		for (int id : referencedPackages) {
+			if (indexedPackages.get(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getPackage(String className) {
+		int lastSlash = className.lastIndexOf('/');
+		return lastSlash > 0 ? className.substring(0, lastSlash) : "";
 	}
 
 	public byte[] run(ModLoadOption mod, byte[] classBytes) {
@@ -280,6 +373,103 @@ public class InternalsHiderTransform {
 
 	}
 
+	/** @return Every {@link ModInternal} declaration from the given mod, as sorted lines that can be read by
+	 *         {@link #readModInternals(ModLoadOption, List)}. */
+	List<String> writeModInternals(ModLoadOption mod) {
+		List<String> lines = new ArrayList<>();
+		writeModInternals(mod, internalPackages, "package", key -> key, lines);
+		writeModInternals(mod, internalClasses, "class", key -> key, lines);
+		writeModInternals(mod, internalMethods, "method", key -> key.className + "\t" + key.methodName + "\t" + key.descriptor, lines);
+		writeModInternals(mod, internalFields, "field", key -> key.className + "\t" + key.fieldName + "\t" + key.type, lines);
+		Collections.sort(lines);
+		return lines;
+	}
+
+	private static <K> void writeModInternals(ModLoadOption mod, Map<K, InternalValue> map, String type, Function<K, String> keyWriter, List<String> to) {
+		for (Map.Entry<K, InternalValue> entry : map.entrySet()) {
+			if (!(entry.getValue() instanceof ModInternalValue)) {
+				continue;
+			}
+			ModInternalValue value = (ModInternalValue) entry.getValue();
+			if (value.inMod != mod) {
+				continue;
+			}
+			StringBuilder sb = new StringBuilder();
+			sb.append(type).append('\t').append(keyWriter.apply(entry.getKey()));
+			sb.append('\t').append(String.join(",", new TreeSet<>(value.permitted)));
+			for (String replacement : value.replacements) {
+				sb.append('\t').append(replacement);
+			}
+			to.add(sb.toString());
+		}
+	}
+
+	/** Reads {@link ModInternal} declarations that were previously written by {@link #writeModInternals(ModLoadOption)},
+	 * without needing to scan the classes of the mod again. */
+	void readModInternals(ModLoadOption mod, List<String> lines) {
+		for (String line : lines) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] parts = line.split("\t", -1);
+			final int keyLength;
+			switch (parts[0]) {
+				case "package":
+				case "class":
+					keyLength = 1;
+					break;
+				case "method":
+				case "field":
+					keyLength = 3;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown internal type '" + parts[0] + "' in " + mod.id());
+			}
+			int permittedIndex = 1 + keyLength;
+			Set<String> permitted = new HashSet<>();
+			if (!parts[permittedIndex].isEmpty()) {
+				permitted.addAll(Arrays.asList(parts[permittedIndex].split(",")));
+			}
+			ModInternalValue value = new ModInternalValue(mod, permitted);
+			for (int i = permittedIndex + 1; i < parts.length; i++) {
+				value.replacements.add(parts[i]);
+			}
+			switch (parts[0]) {
+				case "package":
+					internalPackages.put(parts[1], value);
+					break;
+				case "class":
+					internalClasses.put(parts[1], value);
+					break;
+				case "method":
+					internalMethods.put(new MethodKey(parts[1], parts[2], parts[3]), value);
+					break;
+				case "field":
+					internalFields.put(new FieldKey(parts[1], parts[2], parts[3]), value);
+					break;
+			}
+		}
+	}
+
+	/** Computes a hash of every {@link ModInternal} declaration known to this transformer, from every mod in the given
+	 * list. Any change to this hash means that every class needs to be processed again. */
+	String computeModInternalsHash(List<ModLoadOption> mods) {
+		List<ModLoadOption> sorted = new ArrayList<>(mods);
+		sorted.sort(Comparator.comparing(ModLoadOption::id));
+		StringBuilder sb = new StringBuilder();
+		for (ModLoadOption mod : sorted) {
+			List<String> lines = writeModInternals(mod);
+			if (lines.isEmpty()) {
+				continue;
+			}
+			sb.append("mod:").append(mod.id()).append('\n');
+			for (String line : lines) {
+				sb.append(line).append('\n');
+			}
+		}
+		return HashUtil.hashToString(HashUtil.computeHash(sb.toString()));
+	}
+
 	private InternalValue getAnnotationSet(String owner) {
 		InternalValue value = internalClasses.get(owner);
 		if (value != null) {
@@ -36,17 +36,32 @@ import net.fabricmc.accesswidener.AccessWidenerClassVisitor;
 
 @QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
 final class QuiltTransformer {
+
+	/** @return True if the given mod has access wideners and the package access hack applied to it. */
+	static boolean isMinecraft(ModLoadOption mod) {
+		return mod.id().equals("minecraft");
+	}
+
+	/** @return The transformed class, or null if the class was hidden or didn't need to be changed. */
 	public static byte @Nullable [] transform(boolean isDevelopment, EnvType envType, TransformCache cache, AccessWidener accessWidener, String name, ModLoadOption mod, byte[] bytes) {
-		boolean isMinecraftClass = mod.id().equals("minecraft");
+		boolean isMinecraftClass = isMinecraft(mod);
 		boolean transformAccess = isMinecraftClass && QuiltLauncherBase.getLauncher().getMappingConfiguration().requiresPackageAccessHack();
 		boolean environmentStrip = !isMinecraftClass || isDevelopment;
 		boolean applyAccessWidener = isMinecraftClass && accessWidener.getTargets().contains(name);
 
 		if (!transformAccess && !environmentStrip && !applyAccessWidener) {
-			return bytes;
+			return null;
 		}
 
 		ClassReader classReader = new ClassReader(bytes);
+
+		// Most classes don't contain anything to strip or fix, so check that before visiting anything
+		environmentStrip = environmentStrip && ClassPrefilter.mightStripEnvironment(classReader, bytes);
+		transformAccess = transformAccess && ClassPrefilter.hasPackageAccess(classReader);
+
+		if (!transformAccess && !environmentStrip && !applyAccessWidener) {
+			return null;
+		}
 		ClassWriter classWriter = null;
 		ClassVisitor visitor = null;
 		int visitorCount = 0;
@@ -56,7 +71,7 @@ final class QuiltTransformer {
 			classReader.accept(stripData, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
 
 			if (stripData.stripEntireClass()) {
-				cache.hideClass(name);
+				cache.hideClass(mod, name);
 				return null;
 			}
 
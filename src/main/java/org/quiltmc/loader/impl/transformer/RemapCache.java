@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.transformer;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.Nullable;
+import org.quiltmc.loader.api.FasterFiles;
+import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
+import org.quiltmc.loader.impl.filesystem.PartiallyWrittenIOException;
+import org.quiltmc.loader.impl.filesystem.QuiltZipFileSystem;
+import org.quiltmc.loader.impl.launch.common.QuiltLauncherBase;
+import org.quiltmc.loader.impl.util.HashUtil;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
+import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Stores the output of {@link RuntimeModRemapper} for each mod, so mods don't need to be remapped again every time
+ * the transform cache is generated. Each environment has its own folder, with a folder for each mod. Outputs for
+ * older keys are only deleted once they haven't been used for {@link #STALE_MILLIS}, since another instance of the
+ * game might still be reading them. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+final class RemapCache implements Closeable {
+
+	private static final long STALE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private final Path folder;
+	private final Map<String, String> modOriginHash;
+	private final List<QuiltZipFileSystem> openFileSystems = new ArrayList<>();
+
+	RemapCache(Path folder, Map<String, String> modOriginHash) {
+		this.folder = folder.resolve(QuiltLauncherBase.getLauncher().getEnvironmentType().name().toLowerCase(Locale.ROOT));
+		this.modOriginHash = modOriginHash;
+	}
+
+	/** @param sharedKey Everything other than the mod itself that affects the remapped output of every mod.
+	 * @return The key of the given mod, or null if the mod can't be cached. */
+	@Nullable
+	String getKey(ModLoadOption mod, String sharedKey) {
+		String origin = describe(mod);
+		if (origin == null) {
+			return null;
+		}
+		return HashUtil.hashToString(HashUtil.computeHash(origin + "\n" + sharedKey));
+	}
+
+	/** @return The file name and origin hash of the given mod, or null if the hash isn't known. */
+	@Nullable
+	String describe(ModLoadOption mod) {
+		String originHash = modOriginHash.get(mod.id());
+		if (originHash == null) {
+			return null;
+		}
+		return mod.from().getFileName() + " " + originHash;
+	}
+
+	/** @return The root of the previously remapped output of the given mod, which stays readable until this is closed,
+	 *         or null if the mod hasn't been remapped with the given key. */
+	@Nullable
+	Path find(ModLoadOption mod, String key) {
+		Path file = getFile(mod, key);
+		if (!FasterFiles.isRegularFile(file)) {
+			return null;
+		}
+		try {
+			QuiltZipFileSystem fs = new QuiltZipFileSystem("remapped-" + mod.id(), file, "", true);
+			openFileSystems.add(fs);
+			touch(file);
+			return fs.getRoot();
+		} catch (IOException | IOError e) {
+			if (!(e instanceof PartiallyWrittenIOException)) {
+				Log.warn(LogCategory.CACHE, "Failed to read the remapped output of " + mod.id() + " from " + file, e);
+			}
+			return null;
+		}
+	}
+
+	/** Stores the remapped output of the given mod, and deletes the output of any previous key which hasn't been used
+	 * recently. */
+	void store(ModLoadOption mod, String key, Path output) {
+		Path file = getFile(mod, key);
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			deleteStale(file);
+			QuiltZipFileSystem.writeQuiltCompressedFileSystem(output, tempFile);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | IOError e) {
+			// Not fatal, since it will just be remapped again next time
+			Log.warn(LogCategory.CACHE, "Failed to store the remapped output of " + mod.id() + " in " + file, e);
+		}
+	}
+
+	private static void deleteStale(Path file) throws IOException {
+		long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent())) {
+			for (Path old : stream) {
+				if (old.equals(file) || now - Files.getLastModifiedTime(old).toMillis() < STALE_MILLIS) {
+					continue;
+				}
+				try {
+					Files.delete(old);
+				} catch (IOException e) {
+					// Probably still open in another instance, so try again next time
+				}
+			}
+		}
+	}
+
+	/** Marks the given file as recently used, so other instances don't delete it. */
+	private static void touch(Path file) {
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Only used to delete old files
+		}
+	}
+
+	private Path getFile(ModLoadOption mod, String key) {
+		return folder.resolve(mod.id()).resolve(key + ".zip");
+	}
+
+	@Override
+	public void close() {
+		for (QuiltZipFileSystem fs : openFileSystems) {
+			try {
+				fs.close();
+			} catch (IOException e) {
+				Log.warn(LogCategory.CACHE, "Failed to close " + fs, e);
+			}
+		}
+		openFileSystems.clear();
+	}
+}
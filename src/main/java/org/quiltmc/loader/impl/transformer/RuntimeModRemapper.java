@@ -19,21 +19,28 @@ package org.quiltmc.loader.impl.transformer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.commons.Remapper;
 import org.quiltmc.loader.api.ExtendedFiles;
 import org.quiltmc.loader.api.FasterFiles;
 import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
 import org.quiltmc.loader.impl.QuiltLoaderImpl;
+import org.quiltmc.loader.impl.launch.common.MappingConfiguration;
 import org.quiltmc.loader.impl.launch.common.QuiltLauncher;
 import org.quiltmc.loader.impl.launch.common.QuiltLauncherBase;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
@@ -54,15 +61,56 @@ final class RuntimeModRemapper {
 
 	static final boolean COPY_ON_WRITE = true;
 
-	public static void remap(TransformCache cache) {
+	public static void remap(TransformCache cache, Collection<ModLoadOption> mods) {
 		List<ModLoadOption> modsToRemap = cache.getMods().stream()
 				.filter(modLoadOption -> modLoadOption.namespaceMappingFrom() != null)
+				.filter(mods::contains)
 				.collect(Collectors.toList());
 
 		if (modsToRemap.isEmpty()) {
 			return;
 		}
 
+		List<Path> remapClasspath;
+		try {
+			remapClasspath = getRemapClasspath();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read the remap classpath", e);
+		}
+
+		RemapCache remapCache = cache.getRemapCache();
+		Map<ModLoadOption, String> remapKeys = new HashMap<>();
+		String sharedKey = remapCache == null ? null : computeSharedKey(remapClasspath, remapCache, cache.getMods());
+		if (sharedKey != null) {
+			for (Iterator<ModLoadOption> iterator = modsToRemap.iterator(); iterator.hasNext();) {
+				ModLoadOption mod = iterator.next();
+				String key = remapCache.getKey(mod, sharedKey);
+				if (key == null) {
+					continue;
+				}
+				Path cached = remapCache.find(mod, key);
+				if (cached != null) {
+					copyCached(cached, cache.getRoot(mod));
+					iterator.remove();
+				} else {
+					remapKeys.put(mod, key);
+				}
+			}
+
+			if (modsToRemap.isEmpty()) {
+				return;
+			}
+		}
+
+		// Mods which were remapped by a previous transform cache (or which were already remapped)
+		// still need to be visible to the remapper so it can resolve the class hierarchy of the mods which are being
+		// remapped
+		List<Path> otherMods = cache.getMods().stream()
+				.filter(modLoadOption -> modLoadOption.namespaceMappingFrom() != null)
+				.filter(mod -> !modsToRemap.contains(mod))
+				.map(mod -> mod.resourceRoot().toAbsolutePath())
+				.collect(Collectors.toList());
+
 		QuiltLauncher launcher = QuiltLauncherBase.getLauncher();
 
 		TinyRemapper remapper = TinyRemapper.newRemapper()
@@ -70,10 +118,9 @@ final class RuntimeModRemapper {
 				.renameInvalidLocals(false)
 				.build();
 
-		try {
-			remapper.readClassPathAsync(getRemapClasspath().toArray(new Path[0]));
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to populate remap classpath", e);
+		remapper.readClassPathAsync(remapClasspath.toArray(new Path[0]));
+		if (!otherMods.isEmpty()) {
+			remapper.readClassPathAsync(otherMods.toArray(new Path[0]));
 		}
 
 		try {
@@ -122,6 +169,11 @@ final class RuntimeModRemapper {
 						Files.write(info.outputPath.resolve(entry.getKey()), entry.getValue());
 					}
 				}
+
+				String key = remapKeys.get(mod);
+				if (key != null) {
+					remapCache.store(mod, key, info.outputPath);
+				}
 			}
 
 		} catch (IOException e) {
@@ -130,6 +182,72 @@ final class RuntimeModRemapper {
 		}
 	}
 
+	/** Computes everything other than the mod itself which affects the remapped output: the mappings, the remap
+	 * classpath, and every other mod which needs remapping (since they are all used to resolve the class hierarchy).
+	 * The classpath is identified by the size and last modified time of each file rather than hashing them, since it
+	 * contains the whole game and its libraries.
+	 *
+	 * @return The key, or null if the origin hash of any of the mods isn't known. */
+	@Nullable
+	private static String computeSharedKey(
+		List<Path> remapClasspath, RemapCache remapCache, Collection<ModLoadOption> mods
+	) {
+		QuiltLauncher launcher = QuiltLauncherBase.getLauncher();
+		MappingConfiguration mappings = launcher.getMappingConfiguration();
+		StringBuilder sb = new StringBuilder();
+		sb.append("mappings=").append(mappings.getMappingsHash()).append('\n');
+		sb.append("namespace=").append(launcher.getTargetNamespace()).append('\n');
+
+		Map<String, String> remappedMods = new TreeMap<>();
+		for (ModLoadOption mod : mods) {
+			if (mod.namespaceMappingFrom() == null) {
+				continue;
+			}
+			String description = remapCache.describe(mod);
+			if (description == null) {
+				return null;
+			}
+			remappedMods.put(mod.id(), description);
+		}
+		for (Map.Entry<String, String> entry : remappedMods.entrySet()) {
+			sb.append("mod=").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+
+		for (Path path : remapClasspath) {
+			sb.append("classpath=").append(path.toAbsolutePath());
+			try {
+				if (FasterFiles.isRegularFile(path)) {
+					sb.append(' ').append(Files.size(path));
+					sb.append(' ').append(Files.getLastModifiedTime(path).toMillis());
+				}
+			} catch (IOException e) {
+				sb.append(" unknown");
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static void copyCached(Path from, Path to) {
+		try (Stream<Path> stream = Files.walk(from)) {
+			stream.filter(FasterFiles::isRegularFile).forEach(file -> {
+				Path dst = to.resolve(from.relativize(file).toString());
+				try {
+					FasterFiles.createDirectories(dst.getParent());
+					if (COPY_ON_WRITE) {
+						ExtendedFiles.copyOnWrite(file, dst);
+					} else {
+						FasterFiles.copy(file, dst);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to copy the remapped output from " + from, e);
+		}
+	}
+
 	private static byte[] remapAccessWidener(byte[] input, Remapper remapper) {
 		AccessWidenerWriter writer = new AccessWidenerWriter();
 		AccessWidenerRemapper remappingDecorator = new AccessWidenerRemapper(writer, remapper, "intermediary", "named");
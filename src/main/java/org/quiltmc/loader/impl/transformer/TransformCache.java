@@ -18,6 +18,7 @@ package org.quiltmc.loader.impl.transformer;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.CopyOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -25,6 +26,8 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +35,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -39,12 +48,15 @@ import org.jetbrains.annotations.Nullable;
 import org.quiltmc.loader.api.ExtendedFiles;
 import org.quiltmc.loader.api.FasterFiles;
 import org.quiltmc.loader.api.LoaderValue;
+import org.quiltmc.loader.api.ModInternal;
 import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
 import org.quiltmc.loader.impl.QuiltLoaderImpl;
+import org.quiltmc.loader.impl.filesystem.QuiltMapFileSystem;
 import org.quiltmc.loader.impl.launch.common.QuiltLauncherBase;
 import org.quiltmc.loader.impl.util.LoaderUtil;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
+import org.quiltmc.loader.impl.util.SystemProperties;
 import org.quiltmc.loader.impl.util.log.Log;
 import org.quiltmc.loader.impl.util.log.LogCategory;
 import org.quiltmc.parsers.json.JsonReader;
@@ -54,17 +66,50 @@ import org.quiltmc.parsers.json.JsonReader;
  */
 @QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
 class TransformCache {
+
+	/** Folder (at the root of the transform cache) which holds per-mod information about each segment. Each mod gets
+	 * its own sub-folder, named after the mod id. */
+	static final String SEGMENTS_FOLDER = "segments";
+	static final String SEGMENT_KEY = "key.txt";
+	static final String SEGMENT_HIDDEN_CLASSES = "hidden_classes.txt";
+	static final String SEGMENT_INTERNALS = "internals.txt";
+	static final String SEGMENT_PACKAGES = "packages.txt";
+
 	private final Path root;
 	private final Map<ModLoadOption, Path> modRoots = new HashMap<>();
+	private final List<ModLoadOption> allMods;
 	private final List<ModLoadOption> orderedMods;
-	private final Set<String> hiddenClasses = new HashSet<>();
+	private final Set<ModLoadOption> reusedMods = new HashSet<>();
+	private final Set<String> hiddenClasses = ConcurrentHashMap.newKeySet();
+	private final Map<ModLoadOption, Set<String>> modHiddenClasses = new ConcurrentHashMap<>();
+	private final Map<ModLoadOption, Map<String, Boolean>> modPackages = new ConcurrentHashMap<>();
+	private final Map<ModLoadOption, List<String>> modInternals = new HashMap<>();
+	private String modInternalsHash = "";
+	@Nullable
+	private final RemapCache remapCache;
 	private static final boolean COPY_ON_WRITE = true;
 
+	/** The maximum number of threads that {@link #forEachClassFile(ClassConsumer)} uses. Defaults to the number of
+	 * available processors. */
+	private static final int THREAD_COUNT = Math.max(1, Integer.getInteger(
+		SystemProperties.TRANSFORM_CACHE_THREADS, Runtime.getRuntime().availableProcessors()
+	));
+	private static final AtomicInteger POOL_INDEX = new AtomicInteger();
+
 	public TransformCache(Path root, List<ModLoadOption> orderedMods) {
+		this(root, orderedMods, null);
+	}
+
+	TransformCache(Path root, List<ModLoadOption> orderedMods, @Nullable RemapCache remapCache) {
 		this.root = root;
+		this.remapCache = remapCache;
+		this.allMods = orderedMods;
 		this.orderedMods = orderedMods.stream().filter(mod -> mod.needsTransforming() && !QuiltLoaderImpl.MOD_ID.equals(mod.id())).collect(Collectors.toList());
+	}
 
-		for (ModLoadOption mod : orderedMods) {
+	/** Copies (and remaps) every given mod into this cache, ready to be transformed. */
+	void populate(Collection<ModLoadOption> mods) {
+		for (ModLoadOption mod : mods) {
 			Path modSrc = mod.resourceRoot();
 			Path modDst = root.resolve(mod.id());
 			modRoots.put(mod, modDst);
@@ -131,12 +176,75 @@ class TransformCache {
 			}
 		}
 		// Populate mods that need remapped
-		RuntimeModRemapper.remap(this);
-		for (ModLoadOption orderedMod : orderedMods) {
-			modRoots.put(orderedMod, root.resolve(orderedMod.id() + "/"));
+		RuntimeModRemapper.remap(this, mods);
+		for (ModLoadOption mod : mods) {
+			modRoots.put(mod, root.resolve(mod.id() + "/"));
+		}
+	}
+
+	/** Copies the already-transformed segment of the given mod from a previous transform cache, rather than
+	 * transforming it again. The hidden classes of the segment are carried over as well.
+	 *
+	 * @param previousRoot The root of the previous transform cache. This must stay open until the new cache has been
+	 *            written. */
+	void reuseSegment(ModLoadOption mod, Path previousRoot) throws IOException {
+		Path modSrc = previousRoot.resolve(mod.id());
+		Path modDst = root.resolve(mod.id());
+		if (FasterFiles.isDirectory(modSrc)) {
+			try (Stream<Path> stream = Files.walk(modSrc)) {
+				stream.filter(FasterFiles::isRegularFile).forEach(path -> copyFile(path, modSrc, modDst));
+			}
+		}
+		modRoots.put(mod, root.resolve(mod.id() + "/"));
+		reusedMods.add(mod);
+
+		Path hiddenFile = getSegmentFolder(previousRoot, mod.id()).resolve(SEGMENT_HIDDEN_CLASSES);
+		if (FasterFiles.isRegularFile(hiddenFile)) {
+			for (String name : Files.readAllLines(hiddenFile, StandardCharsets.UTF_8)) {
+				if (!name.isEmpty()) {
+					hideClass(mod, name);
+				}
+			}
+		}
+
+		Path packagesFile = getSegmentFolder(previousRoot, mod.id()).resolve(SEGMENT_PACKAGES);
+		if (FasterFiles.isRegularFile(packagesFile)) {
+			readPackageEnvironments(Files.readAllLines(packagesFile, StandardCharsets.UTF_8))
+				.forEach((pkg, permitted) -> setPackageEnvironment(mod, pkg, permitted));
 		}
 	}
 
+	/** Discards a segment which was previously passed to {@link #reuseSegment(ModLoadOption, Path)}, and populates it
+	 * again so it will be transformed from scratch. */
+	void invalidateSegment(ModLoadOption mod) throws IOException {
+		if (!reusedMods.remove(mod)) {
+			return;
+		}
+
+		Path modDst = root.resolve(mod.id());
+		if (FasterFiles.isDirectory(modDst)) {
+			try (Stream<Path> stream = Files.walk(modDst)) {
+				List<Path> paths = stream.collect(Collectors.toList());
+				Collections.reverse(paths);
+				for (Path path : paths) {
+					Files.delete(path);
+				}
+			}
+		}
+
+		Set<String> hidden = modHiddenClasses.remove(mod);
+		if (hidden != null) {
+			hiddenClasses.removeAll(hidden);
+		}
+		modPackages.remove(mod);
+
+		populate(Collections.singletonList(mod));
+	}
+
+	boolean isReused(ModLoadOption mod) {
+		return reusedMods.contains(mod);
+	}
+
 	public Path getRoot(ModLoadOption mod) {
 		return modRoots.get(mod);
 	}
@@ -145,19 +253,165 @@ class TransformCache {
 		return Collections.unmodifiableList(orderedMods);
 	}
 
+	/** @return Every mod with a segment in this cache, including those which aren't transformed. */
+	public List<ModLoadOption> getAllMods() {
+		return Collections.unmodifiableList(allMods);
+	}
+
+	/** @return The store for the output of {@link RuntimeModRemapper}, or null if remapped mods aren't cached. */
+	@Nullable
+	RemapCache getRemapCache() {
+		return remapCache;
+	}
+
 	public Set<String> getHiddenClasses() {
 		return Collections.unmodifiableSet(hiddenClasses);
 	}
 
+	public Set<String> getHiddenClasses(ModLoadOption mod) {
+		Set<String> set = modHiddenClasses.get(mod);
+		return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+	}
+
+	/** Visits every class file of every mod that needs transforming, except for segments which have been reused from
+	 * a previous cache.
+	 * <p>
+	 * Classes are passed to the action from multiple threads at once (unless {@link SystemProperties#TRANSFORM_CACHE_THREADS}
+	 * is 1), so the action must only depend on the class it's given. The output doesn't depend on the order that
+	 * classes are visited in. */
 	public void forEachClassFile(ClassConsumer action)
 			throws IOException {
+		ForkJoinPool pool = createPool();
+		try {
+			forEachClassFile(pool, collectClassFiles(), cls -> action.run(cls.mod, cls.name, cls.file));
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/** @return Every class file of every mod that needs transforming, except for segments which have been reused from
+	 *         a previous cache. */
+	List<ClassFile> collectClassFiles() throws IOException {
+		List<ClassFile> classes = new ArrayList<>();
 		for (ModLoadOption mod : orderedMods) {
-			visitFolder(mod, getRoot(mod), action);
+			if (!reusedMods.contains(mod)) {
+				visitFolder(mod, getRoot(mod), (m, name, file) -> {
+					classes.add(new ClassFile(m, name, file));
+					return null;
+				});
+			}
+		}
+		return classes;
+	}
+
+	/** @return The pool to pass to {@link #forEachClassFile(ForkJoinPool, List, ClassFileConsumer)}, or null if classes
+	 *         should be visited on the calling thread. The caller must shut it down once every pass has finished. */
+	@Nullable
+	ForkJoinPool createPool() {
+		if (THREAD_COUNT <= 1 || !(root.getFileSystem() instanceof QuiltMapFileSystem)) {
+			return null;
+		}
+		return new ForkJoinPool(THREAD_COUNT, new TransformThreadFactory(), null, false);
+	}
+
+	/** Passes the given classes to the action, in the same way as {@link #forEachClassFile(ClassConsumer)}. Classes
+	 * which have been hidden since they were collected are skipped.
+	 *
+	 * @param pool The pool returned by {@link #createPool()}. */
+	void forEachClassFile(@Nullable ForkJoinPool pool, List<ClassFile> classes, ClassFileConsumer action)
+		throws IOException {
+
+		if (pool == null) {
+			for (ClassFile cls : classes) {
+				cls.accept(action, hiddenClasses);
+			}
+			return;
+		}
+
+		try {
+			pool.invoke(new TransformTask(action, hiddenClasses, classes, 0, classes.size()));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
 	}
 
-	public void hideClass(String className) {
+	public void hideClass(ModLoadOption mod, String className) {
 		hiddenClasses.add(className);
+		modHiddenClasses.computeIfAbsent(mod, m -> ConcurrentHashMap.newKeySet()).add(className);
+	}
+
+	/** Records whether the package-info class of the given package permits the package to be loaded in the current
+	 * environment. */
+	void setPackageEnvironment(ModLoadOption mod, String packageName, boolean permitted) {
+		modPackages.computeIfAbsent(mod, m -> new ConcurrentHashMap<>()).put(packageName, permitted);
+	}
+
+	/** @return Every package with a package-info class in the given mod, mapped to whether it can be loaded. */
+	Map<String, Boolean> getPackageEnvironments(ModLoadOption mod) {
+		Map<String, Boolean> map = modPackages.get(mod);
+		return map == null ? Collections.emptyMap() : Collections.unmodifiableMap(map);
+	}
+
+	/** @return Every package with a package-info class in any mod, mapped to whether it can be loaded. Packages which
+	 *         different mods disagree on are left out, so they are checked when they're loaded instead. */
+	Map<String, Boolean> getPackageEnvironments() {
+		Map<String, Boolean> merged = new HashMap<>();
+		Set<String> conflicts = new HashSet<>();
+		for (Map<String, Boolean> map : modPackages.values()) {
+			for (Map.Entry<String, Boolean> entry : map.entrySet()) {
+				Boolean previous = merged.putIfAbsent(entry.getKey(), entry.getValue());
+				if (previous != null && !previous.equals(entry.getValue())) {
+					conflicts.add(entry.getKey());
+				}
+			}
+		}
+		merged.keySet().removeAll(conflicts);
+		return merged;
+	}
+
+	static List<String> writePackageEnvironments(Map<String, Boolean> packages) {
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<String, Boolean> entry : new TreeMap<>(packages).entrySet()) {
+			lines.add((entry.getValue() ? "+" : "-") + entry.getKey());
+		}
+		return lines;
+	}
+
+	/** Reads the lines written by {@link #writePackageEnvironments(Map)}. */
+	static Map<String, Boolean> readPackageEnvironments(List<String> lines) {
+		Map<String, Boolean> packages = new HashMap<>();
+		for (String line : lines) {
+			if (!line.isEmpty()) {
+				packages.put(line.substring(1), line.charAt(0) == '+');
+			}
+		}
+		return packages;
+	}
+
+	void setModInternals(InternalsHiderTransform internalsHider, String hash) {
+		for (ModLoadOption mod : orderedMods) {
+			modInternals.put(mod, internalsHider.writeModInternals(mod));
+		}
+		modInternalsHash = hash;
+	}
+
+	/** @return The {@link ModInternal} declarations of the given mod, in the form written by
+	 *         {@link InternalsHiderTransform#writeModInternals(ModLoadOption)}. */
+	public List<String> getModInternals(ModLoadOption mod) {
+		List<String> list = modInternals.get(mod);
+		return list == null ? Collections.emptyList() : list;
+	}
+
+	/** @return A hash of the {@link ModInternal} declarations of every mod, which every segment was transformed
+	 *         against. */
+	public String getModInternalsHash() {
+		return modInternalsHash;
+	}
+
+	static Path getSegmentFolder(Path cacheRoot, String modId) {
+		return cacheRoot.resolve(SEGMENTS_FOLDER).resolve(modId);
 	}
 
 	private static void copyFile(Path path, Path modSrc, Path modDst, CopyOption... copyOptions) {
@@ -242,6 +496,84 @@ class TransformCache {
 		});
 	}
 
+	static final class ClassFile {
+		final ModLoadOption mod;
+		final String name;
+		final Path file;
+
+		/** The packages referenced by this class, as returned by
+		 * {@link InternalsHiderTransform#scanClass(ModLoadOption, Path, byte[])}. */
+		int @Nullable [] referencedPackages;
+
+		ClassFile(ModLoadOption mod, String name, Path file) {
+			this.mod = mod;
+			this.name = name;
+			this.file = file;
+		}
+
+		void accept(ClassFileConsumer action, Set<String> hiddenClasses) throws IOException {
+			if (hiddenClasses.contains(name)) {
+				return;
+			}
+			byte[] result = action.run(this);
+			if (result != null) {
+				Files.write(file, result);
+			}
+		}
+	}
+
+	/** Splits a list of classes in half until there are few enough to transform directly. */
+	static final class TransformTask extends RecursiveAction {
+		private static final int THRESHOLD = 64;
+
+		final ClassFileConsumer action;
+		final Set<String> hiddenClasses;
+		final List<ClassFile> classes;
+		final int from, to;
+
+		TransformTask(ClassFileConsumer action, Set<String> hiddenClasses, List<ClassFile> classes, int from, int to) {
+			this.action = action;
+			this.hiddenClasses = hiddenClasses;
+			this.classes = classes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(
+					new TransformTask(action, hiddenClasses, classes, from, mid),
+					new TransformTask(action, hiddenClasses, classes, mid, to)
+				);
+				return;
+			}
+
+			for (int i = from; i < to; i++) {
+				ClassFile cls = classes.get(i);
+				try {
+					cls.accept(action, hiddenClasses);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Failed to transform " + cls.name + " from " + cls.mod.id(), e);
+				}
+			}
+		}
+	}
+
+	static final class TransformThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+		final int poolIndex = POOL_INDEX.incrementAndGet();
+		final AtomicInteger threadIndex = new AtomicInteger();
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("QuiltTransformCache-" + poolIndex + "." + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
 	@FunctionalInterface
 	public interface ClassConsumer {
 		/**
@@ -249,8 +581,15 @@ class TransformCache {
 		 *
 		 * @param mod       the mod which "owns" this class file
 		 * @param className the name of the class in dot form (e.g. {@code net.minecraft.client.MinecraftClient$1}
-		 * @return the transformed bytes, or null if nothing was changed
+		 * @return the transformed bytes, or null if nothing was changed. This may be called from multiple threads at
+		 *         once.
 		 */
 		byte @Nullable [] run(ModLoadOption mod, String className, Path file) throws IOException;
 	}
+
+	@FunctionalInterface
+	interface ClassFileConsumer {
+		/** Like {@link ClassConsumer#run(ModLoadOption, String, Path)}, but with access to the {@link ClassFile} itself. */
+		byte @Nullable [] run(ClassFile cls) throws IOException;
+	}
 }
@@ -18,84 +18,222 @@ package org.quiltmc.loader.impl.transformer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import org.jetbrains.annotations.Nullable;
 import org.quiltmc.loader.api.FasterFiles;
+import org.quiltmc.loader.api.ModInternal;
 import org.quiltmc.loader.api.QuiltLoader;
 import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
+import org.quiltmc.loader.impl.QuiltLoaderImpl;
 import org.quiltmc.loader.impl.discovery.ModResolutionException;
 import org.quiltmc.loader.impl.filesystem.QuiltMapFileSystem;
 import org.quiltmc.loader.impl.launch.common.QuiltLauncherBase;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
 import org.quiltmc.loader.impl.util.SystemProperties;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+import org.objectweb.asm.ClassReader;
 
 import net.fabricmc.accesswidener.AccessWidener;
 import net.fabricmc.accesswidener.AccessWidenerReader;
+import net.fabricmc.api.EnvType;
 
 @QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
 final class TransformCacheGenerator {
 
+	private static final String PACKAGE_INFO = ".package-info";
 
 	static TransformCache generate(Path root, List<ModLoadOption> modList) throws ModResolutionException, IOException {
-		TransformCache cache = new TransformCache(root, modList);
+		return generate(root, modList, null, Collections.emptySet(), null);
+	}
+
+	/** Generates a transform cache, reusing the segments of the given mods from a previous cache where possible.
+	 *
+	 * @param previousRoot The root of the previous transform cache, or null if there isn't one.
+	 * @param reusable Mods whose inputs haven't changed since the previous cache was generated. These will still be
+	 *            transformed again if the {@link ModInternal} declarations they were transformed against have since
+	 *            changed.
+	 * @param remapCache Where to find and store the output of {@link RuntimeModRemapper}, or null to always remap. */
+	static TransformCache generate(Path root, List<ModLoadOption> modList, @Nullable Path previousRoot,
+		Set<ModLoadOption> reusable, @Nullable RemapCache remapCache) throws ModResolutionException, IOException {
+
+		TransformCache cache = new TransformCache(root, modList, remapCache);
+		List<ModLoadOption> fresh = new ArrayList<>();
+		for (ModLoadOption mod : modList) {
+			if (previousRoot != null && reusable.contains(mod)) {
+				cache.reuseSegment(mod, previousRoot);
+			} else {
+				fresh.add(mod);
+			}
+		}
+		cache.populate(fresh);
 		QuiltMapFileSystem.dumpEntries(root.getFileSystem(), "after-copy");
 
+		// Every pass shares one pool, rather than starting new threads for each of them
+		ForkJoinPool pool = cache.createPool();
+		try {
+			transform(cache, pool, previousRoot);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		return cache;
+	}
+
+	private static void transform(TransformCache cache, @Nullable ForkJoinPool pool, @Nullable Path previousRoot)
+		throws ModResolutionException, IOException {
+
 		// Transform time!
 		// Load AWs
 		AccessWidener accessWidener = loadAccessWideners(cache);
+		InternalsHiderTransform internalsHider = new InternalsHiderTransform(InternalsHiderTransform.Target.MOD);
+		// Chasm can still change classes after they've been transformed, so they can only be scanned afterwards
+		boolean chasm = Boolean.getBoolean(SystemProperties.ENABLE_EXPERIMENTAL_CHASM);
 		// game provider transformer and QuiltTransformer
-		cache.forEachClassFile((mod, name, file) -> {
+		TransformCache.ClassFileConsumer transformer = cls -> {
 
-			byte[] classBytes = QuiltLauncherBase.getLauncher().getEntrypointTransformer().transform(name);
+			byte[] classBytes = QuiltLauncherBase.getLauncher().getEntrypointTransformer().transform(cls.name);
+			boolean patched = classBytes != null;
 
-			if (classBytes == null) {
-				classBytes = Files.readAllBytes(file);
+			if (!patched) {
+				classBytes = Files.readAllBytes(cls.file);
 			}
 
-			return QuiltTransformer.transform(
+			byte[] result = QuiltTransformer.transform(
 					QuiltLoader.isDevelopmentEnvironment(),
 					QuiltLauncherBase.getLauncher().getEnvironmentType(),
 					cache,
 					accessWidener,
-					name,
-					mod,
+					cls.name,
+					cls.mod,
 					classBytes
 			);
-		});
+
+			if (cache.getHiddenClasses().contains(cls.name)) {
+				if (cls.name.endsWith(PACKAGE_INFO)) {
+					// Knot can't find hidden package-info classes, so it allows their packages to be loaded
+					cache.setPackageEnvironment(cls.mod, getPackageName(cls.name), true);
+				}
+				return null;
+			}
+
+			if (result == null && patched) {
+				// Unchanged by QuiltTransformer, but the game provider still changed it
+				result = classBytes;
+			}
+
+			if (cls.name.endsWith(PACKAGE_INFO)) {
+				readPackageEnvironment(cache, cls, result != null ? result : classBytes);
+			}
+
+			if (!chasm) {
+				cls.referencedPackages = internalsHider.scanClass(cls.mod, cls.file, result != null ? result : classBytes);
+			}
+
+			return result;
+		};
+		List<TransformCache.ClassFile> classes = cache.collectClassFiles();
+		cache.forEachClassFile(pool, classes, transformer);
 
 		// chasm
-		if (Boolean.getBoolean(SystemProperties.ENABLE_EXPERIMENTAL_CHASM)) {
+		if (chasm) {
 			ChasmInvoker.applyChasm(cache);
+			classes = cache.collectClassFiles();
+			cache.forEachClassFile(pool, classes, cls -> {
+				cls.referencedPackages = internalsHider.scanClass(cls.mod, cls.file, Files.readAllBytes(cls.file));
+				return null;
+			});
+		}
+
+		// Reused segments don't need to be scanned again, since their declarations were saved alongside them
+		for (ModLoadOption mod : cache.getMods()) {
+			if (cache.isReused(mod)) {
+				Path internalsFile = TransformCache.getSegmentFolder(previousRoot, mod.id()).resolve(TransformCache.SEGMENT_INTERNALS);
+				if (FasterFiles.isRegularFile(internalsFile)) {
+					internalsHider.readModInternals(mod, Files.readAllLines(internalsFile, StandardCharsets.UTF_8));
+				}
+			}
+		}
+
+		// Reused segments were processed by the internals hider against the declarations of the previous cache,
+		// so if those have changed then they need to be transformed again
+		String internalsHash = internalsHider.computeModInternalsHash(cache.getMods());
+		List<ModLoadOption> invalidated = new ArrayList<>();
+		for (ModLoadOption mod : cache.getMods()) {
+			if (!cache.isReused(mod)) {
+				continue;
+			}
+			Map<String, String> previousKey = TransformCacheManager.readSegmentKey(previousRoot, mod.id());
+			if (previousKey == null || !internalsHash.equals(previousKey.get(TransformCacheManager.KEY_MOD_INTERNALS))) {
+				invalidated.add(mod);
+			}
+		}
+
+		if (!invalidated.isEmpty()) {
+			Log.info(LogCategory.CACHE, "Transforming " + invalidated.size() + " otherwise unchanged mods again since @ModInternal declarations have changed");
+			for (ModLoadOption mod : invalidated) {
+				cache.invalidateSegment(mod);
+			}
+			List<TransformCache.ClassFile> retransform = new ArrayList<>();
+			for (TransformCache.ClassFile cls : cache.collectClassFiles()) {
+				if (invalidated.contains(cls.mod)) {
+					retransform.add(cls);
+				}
+			}
+			// Their declarations were already read from the previous cache, so scanning them again doesn't change
+			// the hash, it just finds the packages they reference
+			cache.forEachClassFile(pool, retransform, transformer);
+			if (chasm) {
+				cache.forEachClassFile(pool, retransform, cls -> {
+					cls.referencedPackages = internalsHider.scanClass(cls.mod, cls.file, Files.readAllBytes(cls.file));
+					return null;
+				});
+			}
+			classes = new ArrayList<>(classes);
+			classes.addAll(retransform);
 		}
-		InternalsHiderTransform internalsHider = new InternalsHiderTransform(InternalsHiderTransform.Target.MOD);
-		Map<Path, ModLoadOption> classes = new HashMap<>();
 
 		// internals hider
-		// the double read is necessary to avoid storing all classes in memory at once, and thus having memory complexity
-		// proportional to mod count
-		cache.forEachClassFile((mod, name, file) -> {
-			byte[] classBytes = Files.readAllBytes(file);
-			classes.put(file, mod);
-			internalsHider.scanClass(mod, file, classBytes);
-			return null;
-		});
-
-		for (Map.Entry<Path, ModLoadOption> entry : classes.entrySet()) {
-			byte[] classBytes = Files.readAllBytes(entry.getKey());
-			byte[] newBytes = internalsHider.run(entry.getValue(), classBytes);
-			if (newBytes != null) {
-				Files.write(entry.getKey(), newBytes);
+		// Only classes which reference a package containing something internal can be changed, so everything else
+		// doesn't need to be read again
+		internalsHider.indexInternalPackages();
+		List<TransformCache.ClassFile> toHide = new ArrayList<>();
+		for (TransformCache.ClassFile cls : classes) {
+			if (internalsHider.needsRun(cls.referencedPackages)) {
+				toHide.add(cls);
 			}
 		}
+		Log.debug(LogCategory.CACHE, "Checking " + toHide.size() + " of " + classes.size() + " classes for @ModInternal access");
+		cache.forEachClassFile(pool, toHide, cls -> internalsHider.run(cls.mod, Files.readAllBytes(cls.file)));
 
 		internalsHider.finish();
+		cache.setModInternals(internalsHider, internalsHash);
+	}
 
-		return cache;
+	/** Reads a package-info class the same way Knot does when it isn't in the table, so the table doesn't change
+	 * which packages can be loaded. */
+	private static void readPackageEnvironment(TransformCache cache, TransformCache.ClassFile cls, byte[] bytes) {
+		EnvType envType = QuiltLauncherBase.getLauncher().getEnvironmentType();
+		PackageEnvironmentStrippingData data = new PackageEnvironmentStrippingData(QuiltLoaderImpl.ASM_VERSION, envType);
+		new ClassReader(bytes).accept(data, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+		cache.setPackageEnvironment(cls.mod, getPackageName(cls.name), !data.stripEntirePackage);
+	}
+
+	private static String getPackageName(String packageInfo) {
+		return packageInfo.substring(0, packageInfo.length() - PACKAGE_INFO.length());
 	}
 
 	private static AccessWidener loadAccessWideners(TransformCache cache) {
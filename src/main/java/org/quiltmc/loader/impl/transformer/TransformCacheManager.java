@@ -21,31 +21,50 @@ import java.io.IOError;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.ToIntFunction;
 
+import org.jetbrains.annotations.Nullable;
 import org.quiltmc.loader.api.FasterFiles;
+import org.quiltmc.loader.api.ModInternal;
 import org.quiltmc.loader.api.QuiltLoader;
 import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
 import org.quiltmc.loader.api.plugin.solver.ModSolveResult;
+import org.quiltmc.loader.impl.QuiltLoaderImpl;
 import org.quiltmc.loader.impl.discovery.ModResolutionException;
 import org.quiltmc.loader.impl.filesystem.PartiallyWrittenIOException;
 import org.quiltmc.loader.impl.filesystem.QuiltUnifiedFileSystem;
 import org.quiltmc.loader.impl.filesystem.QuiltUnifiedPath;
 import org.quiltmc.loader.impl.filesystem.QuiltZipFileSystem;
 import org.quiltmc.loader.impl.filesystem.QuiltZipPath;
+import org.quiltmc.loader.impl.launch.common.QuiltLauncherBase;
 import org.quiltmc.loader.impl.util.FilePreloadHelper;
 import org.quiltmc.loader.impl.util.FileSystemUtil;
+import org.quiltmc.loader.impl.util.HashUtil;
+import org.quiltmc.loader.impl.util.LoaderUtil;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternal;
 import org.quiltmc.loader.impl.util.QuiltLoaderInternalType;
 import org.quiltmc.loader.impl.util.SystemProperties;
@@ -61,31 +80,60 @@ public class TransformCacheManager {
 	public static final String TRANSFORM_CACHE_NONMOD_CLASSLOADABLE = "Unknown Mod";
 
 	private static final String CACHE_FILE = "files.zip";
+	private static final String CACHE_FILE_TEMP = "files.zip.tmp";
+	/** Holds the name of the global cache that was last used, if {@link SystemProperties#GLOBAL_TRANSFORM_CACHE_DIR} is
+	 * set. */
+	private static final String GLOBAL_CACHE_REFERENCE = "global_cache.txt";
+	private static final String REMAP_CACHE_FOLDER = "remapped-mods";
+
+	/** Key in each segment's key file for the hash of every {@link ModInternal} declaration that the segment was
+	 * transformed against. */
+	static final String KEY_MOD_INTERNALS = "mod-internals";
 
 	private static final String FILE_TRANSFORM_COMPLETE = "__TRANSFORM_COMPLETE";
 	private static final String HIDDEN_CLASSES_PATH = "hidden_classes.txt";
+	private static final String PACKAGE_ENVIRONMENTS_PATH = "package_environments.txt";
+
+	/** The order that classes were loaded in by the previous launch, written by Knot. This is kept when the cache is
+	 * erased, since it's used to order the classes in the next cache. */
+	public static final String CLASS_LOAD_TRACE = "class-load-trace.txt";
 
 	public static TransformCacheResult populateTransformBundle(Path transformCacheFolder, List<ModLoadOption> modList,
 		Map<String, String> modOriginHash, ModSolveResult result) throws ModResolutionException {
 		Map<String, String> map = new TreeMap<>();
-		// Mod order is important? For now, assume it is
-		int index = 0;
-		for (ModLoadOption mod : modList) {
-			map.put("mod#" + index++, mod.id());
-		}
 
-		for (Entry<String, ModLoadOption> provided : result.providedMods().entrySet()) {
-			map.put("provided-mod:" + provided.getKey(), provided.getValue().metadata().id());
-		}
+		boolean enableChasm = Boolean.getBoolean(SystemProperties.ENABLE_EXPERIMENTAL_CHASM);
+		map.put("system-property:" + SystemProperties.ENABLE_EXPERIMENTAL_CHASM, "" + enableChasm);
+		map.put("environment", QuiltLauncherBase.getLauncher().getEnvironmentType().name());
+		putLoaderOptions(map, modOriginHash, QuiltLauncherBase.getLauncher().getMappingConfiguration().requiresPackageAccessHack());
+
+		if (enableChasm) {
+			// Chasm transformers can modify classes from any mod, so the cache can't be split into
+			// segments which are invalidated independently of each other.
+			// Mod order is important? For now, assume it is
+			int index = 0;
+			for (ModLoadOption mod : modList) {
+				map.put("mod#" + index++, mod.id());
+			}
+
+			for (Entry<String, ModLoadOption> provided : result.providedMods().entrySet()) {
+				map.put("provided-mod:" + provided.getKey(), provided.getValue().metadata().id());
+			}
 
-		for (Entry<String, ModLoadOption> mod : result.directMods().entrySet()) {
-			ModLoadOption modOption = mod.getValue();
-			String name = modOption.from().getFileName().toString();
-			map.put("mod:" + mod.getKey(), name + " " + modOriginHash.get(modOption.id()));
+			for (Entry<String, ModLoadOption> mod : result.directMods().entrySet()) {
+				ModLoadOption modOption = mod.getValue();
+				String name = modOption.from().getFileName().toString();
+				map.put("mod:" + mod.getKey(), name + " " + modOriginHash.get(modOption.id()));
+			}
 		}
 
-		boolean enableChasm = Boolean.getBoolean(SystemProperties.ENABLE_EXPERIMENTAL_CHASM);
-		map.put("system-property:" + SystemProperties.ENABLE_EXPERIMENTAL_CHASM, "" + enableChasm);
+		Map<String, Map<String, String>> segmentKeys = createSegmentKeys(modList, modOriginHash);
+
+		String globalDir = System.getProperty(SystemProperties.GLOBAL_TRANSFORM_CACHE_DIR);
+		if (globalDir != null && !QuiltLoader.isDevelopmentEnvironment()
+			&& !Boolean.getBoolean(SystemProperties.DISABLE_OPTIMIZED_COMPRESSED_TRANSFORM_CACHE)) {
+			return populateGlobalTransformBundle(Paths.get(globalDir), transformCacheFolder, map, modList, modOriginHash, segmentKeys);
+		}
 
 		try {
 			Files.createDirectories(transformCacheFolder.getParent());
@@ -93,19 +141,336 @@ public class TransformCacheManager {
 			throw new ModResolutionException("Failed to create parent directories of the transform cache file!", e);
 		}
 
-		QuiltZipPath existing = checkTransformCache(transformCacheFolder, map);
+		QuiltZipPath previous = checkTransformCache(transformCacheFolder, map);
+		QuiltZipPath existing;
 		boolean isNewlyGenerated = false;
-		if (existing == null) {
-			existing = createTransformCache(transformCacheFolder.resolve(CACHE_FILE), toString(map), modList);
+		if (previous != null && isEverySegmentValid(previous, segmentKeys)) {
+			existing = previous;
+			if (!Boolean.getBoolean(SystemProperties.DISABLE_PRELOAD_TRANSFORM_CACHE)) {
+				FilePreloadHelper.preLoad(transformCacheFolder.resolve(CACHE_FILE));
+			}
+		} else {
+			existing = createTransformCache(transformCacheFolder, toString(map), modList, modOriginHash, segmentKeys, previous);
 			isNewlyGenerated = true;
-		} else if (!Boolean.getBoolean(SystemProperties.DISABLE_PRELOAD_TRANSFORM_CACHE)) {
-			FilePreloadHelper.preLoad(transformCacheFolder.resolve(CACHE_FILE));
 		}
+		return createResult(existing, isNewlyGenerated);
+	}
+
+	/** Adds the inputs of the transformers which apply to every segment, but don't depend on any individual mod. A
+	 * different loader build can transform every mod differently, so none of the previous segments can be reused. */
+	static void putLoaderOptions(Map<String, String> map, Map<String, String> modOriginHash,
+		boolean requiresPackageAccessHack) {
+
+		map.put("loader-version", QuiltLoaderImpl.VERSION);
+		map.put("loader-hash", String.valueOf(modOriginHash.get(QuiltLoaderImpl.MOD_ID)));
+		map.put("package-access-hack", "" + requiresPackageAccessHack);
+	}
+
+	private static TransformCacheResult createResult(QuiltZipPath cacheRoot, boolean isNewlyGenerated)
+		throws ModResolutionException {
+		Set<String> hiddenClasses;
 		try {
-			return new TransformCacheResult(existing, isNewlyGenerated, new HashSet<>(Files.readAllLines(existing.resolve(HIDDEN_CLASSES_PATH))));
+			hiddenClasses = new HashSet<>(Files.readAllLines(cacheRoot.resolve(HIDDEN_CLASSES_PATH)));
 		} catch (IOException e) {
 			throw new ModResolutionException("Failed to read hidden classes in the transform cache file!", e);
 		}
+
+		Map<String, Boolean> packageEnvironments = Collections.emptyMap();
+		Path packagesFile = cacheRoot.resolve(PACKAGE_ENVIRONMENTS_PATH);
+		if (FasterFiles.isRegularFile(packagesFile)) {
+			try {
+				packageEnvironments = TransformCache.readPackageEnvironments(Files.readAllLines(packagesFile, StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				throw new ModResolutionException("Failed to read package environments in the transform cache file!", e);
+			}
+		}
+
+		return new TransformCacheResult(cacheRoot, isNewlyGenerated, hiddenClasses, packageEnvironments);
+	}
+
+	/** Uses a transform cache from the {@link SystemProperties#GLOBAL_TRANSFORM_CACHE_DIR global cache folder}, which
+	 * is named after the hash of everything that the cache was generated from. Instances with the same mods share the
+	 * same file, so only the first one to launch needs to generate it. The instance's own cache folder only holds the
+	 * name of the global cache it last used (so it can reuse unchanged segments) and jar copies of mods. */
+	private static TransformCacheResult populateGlobalTransformBundle(Path globalFolder, Path transformCacheFolder,
+		Map<String, String> options, List<ModLoadOption> modList, Map<String, String> modOriginHash,
+		Map<String, Map<String, String>> segmentKeys) throws ModResolutionException {
+
+		String key = computeGlobalKey(options, segmentKeys);
+		Path cacheFile = globalFolder.resolve(key + ".zip");
+		Path referenceFile = transformCacheFolder.resolve(GLOBAL_CACHE_REFERENCE);
+
+		String previousKey = null;
+		try {
+			Files.createDirectories(globalFolder);
+			Files.createDirectories(transformCacheFolder);
+			if (FasterFiles.isRegularFile(referenceFile)) {
+				previousKey = new String(Files.readAllBytes(referenceFile), StandardCharsets.UTF_8).trim();
+			}
+		} catch (IOException e) {
+			throw new ModResolutionException("Failed to create the transform cache directories!", e);
+		}
+
+		if (!key.equals(previousKey)) {
+			// Jar copies (and any local cache) were made from a different transform cache
+			erasePreviousTransformCache(transformCacheFolder, cacheFile, referenceFile, null);
+		}
+
+		boolean isNewlyGenerated = false;
+		QuiltZipPath existing = openGlobalCache(cacheFile);
+
+		if (existing == null) {
+			// Other instances might be generating the same cache right now
+			Path lockFile = globalFolder.resolve(key + ".lock");
+			try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock lock = channel.lock()) {
+
+				existing = openGlobalCache(cacheFile);
+				if (existing == null) {
+					Log.info(LogCategory.CACHE, "Generating the global transform cache " + cacheFile);
+					QuiltZipPath previous = null;
+					if (previousKey != null && !previousKey.isEmpty() && !previousKey.equals(key)) {
+						previous = openGlobalCache(globalFolder.resolve(previousKey + ".zip"));
+					}
+					Path tempFile = globalFolder.resolve(key + ".zip.tmp");
+					try {
+						writeTransformCache(tempFile, toString(options), modList, modOriginHash, segmentKeys, getRemapCacheFolder(transformCacheFolder), readClassLoadOrder(transformCacheFolder), previous);
+					} finally {
+						if (previous != null) {
+							closeQuietly(previous.getFileSystem());
+						}
+					}
+					// Only incomplete caches can exist at this point, and nothing keeps those open
+					Files.deleteIfExists(cacheFile);
+					Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE);
+					existing = openCache(cacheFile);
+					isNewlyGenerated = true;
+				} else {
+					Log.info(LogCategory.CACHE, "Using the global transform cache " + cacheFile + " generated by another instance");
+				}
+				// The cache is complete, so nothing else will try to generate it (and so lock this).
+				// Anything still waiting for the lock will find the complete cache once it gets it
+				deleteQuietly(lockFile);
+			} catch (IOException e) {
+				throw new ModResolutionException("Failed to create the global transform cache " + cacheFile, e);
+			}
+		} else {
+			Log.info(LogCategory.CACHE, "Using the global transform cache " + cacheFile);
+			if (!Boolean.getBoolean(SystemProperties.DISABLE_PRELOAD_TRANSFORM_CACHE)) {
+				FilePreloadHelper.preLoad(cacheFile);
+			}
+		}
+
+		try {
+			Files.write(referenceFile, key.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new ModResolutionException("Failed to write " + referenceFile, e);
+		}
+
+		try {
+			// Used to find the least recently used caches
+			Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to update the last used time of " + cacheFile, e);
+		}
+		evictGlobalCaches(globalFolder, cacheFile);
+
+		return createResult(existing, isNewlyGenerated);
+	}
+
+	/** Deletes the least recently used caches in the global cache folder, so only
+	 * {@link SystemProperties#GLOBAL_TRANSFORM_CACHE_MAX_FILES} are kept (including the current one). */
+	private static void evictGlobalCaches(Path globalFolder, Path current) {
+		int max = Math.max(1, Integer.getInteger(SystemProperties.GLOBAL_TRANSFORM_CACHE_MAX_FILES, 8));
+
+		Map<Path, FileTime> lastUsed = new HashMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(globalFolder, "*.zip")) {
+			for (Path file : stream) {
+				if (!file.equals(current)) {
+					lastUsed.put(file, Files.getLastModifiedTime(file));
+				}
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to list the global transform caches in " + globalFolder, e);
+			return;
+		}
+
+		List<Path> oldestFirst = new ArrayList<>(lastUsed.keySet());
+		oldestFirst.sort(Comparator.comparing(lastUsed::get));
+		for (int i = 0; i < oldestFirst.size() - (max - 1); i++) {
+			Path file = oldestFirst.get(i);
+			String name = file.getFileName().toString();
+			String key = name.substring(0, name.length() - ".zip".length());
+			Log.info(LogCategory.CACHE, "Deleting the least recently used global transform cache " + file);
+			// Another instance might still be using it, which is fine on most systems
+			// (and on windows it just won't be deleted until a later launch)
+			deleteQuietly(file);
+			deleteQuietly(globalFolder.resolve(key + ".lock"));
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			Log.debug(LogCategory.CACHE, "Failed to delete " + file, e);
+		}
+	}
+
+	/** Hashes every input of the transform cache. The options already include the loader version and hash (from
+	 * {@link #putLoaderOptions(Map, Map, boolean)}), so instances with different loader builds never share a global
+	 * cache. */
+	private static String computeGlobalKey(Map<String, String> options, Map<String, Map<String, String>> segmentKeys) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(toString(options));
+		for (Map.Entry<String, Map<String, String>> entry : segmentKeys.entrySet()) {
+			sb.append("segment:").append(entry.getKey()).append('\n');
+			sb.append(toString(entry.getValue()));
+		}
+		return HashUtil.hashToString(HashUtil.computeHash(sb.toString()));
+	}
+
+	/** @return The root of the given global cache file, or null if it doesn't exist or is incomplete. Global caches
+	 *         are named after their key, so their options don't need to be checked. */
+	@Nullable
+	private static QuiltZipPath openGlobalCache(Path cacheFile) {
+		if (!FasterFiles.isRegularFile(cacheFile)) {
+			return null;
+		}
+		QuiltZipFileSystem fs = null;
+		try {
+			fs = new QuiltZipFileSystem("transform-cache", cacheFile, "", true);
+			QuiltZipPath root = fs.getRoot();
+			if (FasterFiles.isRegularFile(root.resolve(FILE_TRANSFORM_COMPLETE))) {
+				return root;
+			}
+			Log.info(LogCategory.CACHE, "Not using the global transform cache " + cacheFile + " since it's incomplete!");
+		} catch (IOException | IOError e) {
+			Log.warn(LogCategory.CACHE, "Failed to read the global transform cache " + cacheFile, e);
+		}
+		closeQuietly(fs);
+		return null;
+	}
+
+	/** Computes the inputs of each mod's segment of the transform cache. If these don't change between launches then
+	 * the segment can be reused, as long as the {@link ModInternal} declarations of every mod don't change either
+	 * (which is checked by {@link TransformCacheGenerator}). */
+	private static Map<String, Map<String, String>> createSegmentKeys(List<ModLoadOption> modList,
+		Map<String, String> modOriginHash) {
+
+		Map<String, String> accessWideners = new TreeMap<>();
+		for (ModLoadOption mod : modList) {
+			if (!mod.metadata().accessWideners().isEmpty()) {
+				accessWideners.put("access-widener:" + mod.id(), modOriginHash.get(mod.id()));
+			}
+		}
+
+		Map<String, Map<String, String>> segmentKeys = new TreeMap<>();
+		for (ModLoadOption mod : modList) {
+			Map<String, String> key = new TreeMap<>();
+			String name = mod.from().getFileName().toString();
+			key.put("origin", name + " " + modOriginHash.get(mod.id()));
+			if (QuiltTransformer.isMinecraft(mod)) {
+				// Access wideners are only applied to minecraft
+				key.putAll(accessWideners);
+			}
+			segmentKeys.put(mod.id(), key);
+		}
+		return segmentKeys;
+	}
+
+	/** @return The key of the given mod's segment in a previous transform cache, or null if the segment (or it's key)
+	 *         is missing. */
+	@Nullable
+	static Map<String, String> readSegmentKey(Path cacheRoot, String modId) throws IOException {
+		Path keyFile = TransformCache.getSegmentFolder(cacheRoot, modId).resolve(TransformCache.SEGMENT_KEY);
+		if (!FasterFiles.isRegularFile(keyFile)) {
+			return null;
+		}
+		Map<String, String> key = new TreeMap<>();
+		for (String line : Files.readAllLines(keyFile, StandardCharsets.UTF_8)) {
+			int eq = line.indexOf('=');
+			if (eq > 0) {
+				key.put(line.substring(0, eq), line.substring(eq + 1));
+			}
+		}
+		return key;
+	}
+
+	static boolean isSegmentValid(Path cacheRoot, String modId, Map<String, String> newKey)
+		throws IOException {
+
+		Map<String, String> oldKey = readSegmentKey(cacheRoot, modId);
+		if (oldKey == null) {
+			return false;
+		}
+		oldKey.remove(KEY_MOD_INTERNALS);
+		return oldKey.equals(newKey);
+	}
+
+	static boolean isEverySegmentValid(Path cacheRoot, Map<String, Map<String, String>> segmentKeys)
+		throws ModResolutionException {
+
+		try {
+			Set<String> oldSegments = new HashSet<>();
+			Path segmentsFolder = cacheRoot.resolve(TransformCache.SEGMENTS_FOLDER);
+			if (FasterFiles.isDirectory(segmentsFolder)) {
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentsFolder)) {
+					for (Path path : stream) {
+						oldSegments.add(path.getFileName().toString());
+					}
+				}
+			}
+
+			Set<String> missing = new TreeSet<>(segmentKeys.keySet());
+			missing.removeAll(oldSegments);
+			Set<String> removed = new TreeSet<>(oldSegments);
+			removed.removeAll(segmentKeys.keySet());
+			Set<String> changed = new TreeSet<>();
+
+			for (Map.Entry<String, Map<String, String>> entry : segmentKeys.entrySet()) {
+				if (oldSegments.contains(entry.getKey()) && !isSegmentValid(cacheRoot, entry.getKey(), entry.getValue())) {
+					changed.add(entry.getKey());
+				}
+			}
+
+			if (missing.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+				return true;
+			}
+
+			if (SHOW_KEY_DIFFERENCE) {
+				Log.info(LogCategory.CACHE, "Partially reusing the previous transform cache since some mods have changed:");
+				for (String id : missing) {
+					Log.info(LogCategory.CACHE, "  Added: '" + id + "'");
+				}
+				for (String id : removed) {
+					Log.info(LogCategory.CACHE, "  Removed: '" + id + "'");
+				}
+				for (String id : changed) {
+					Log.info(LogCategory.CACHE, "  Changed: '" + id + "'");
+				}
+			} else {
+				Log.info(LogCategory.CACHE, "Partially reusing the previous transform cache since "
+					+ (missing.size() + removed.size() + changed.size())
+					+ " mods have been added, removed, or changed."
+					+ " (Add '-Dloader.transform_cache.log_changed_keys=true' to see all changes).");
+			}
+			return false;
+		} catch (IOException | IOError io) {
+			throw new ModResolutionException("Failed to read the segments of the previous transform cache!", io);
+		}
+	}
+
+	private static Set<ModLoadOption> findReusableSegments(Path cacheRoot, List<ModLoadOption> modList,
+		Map<String, Map<String, String>> segmentKeys) throws IOException {
+
+		Set<ModLoadOption> reusable = new HashSet<>();
+		for (ModLoadOption mod : modList) {
+			if (isSegmentValid(cacheRoot, mod.id(), segmentKeys.get(mod.id()))) {
+				reusable.add(mod);
+			}
+		}
+		return reusable;
 	}
 
 	private static String toString(Map<String, String> map) {
@@ -138,10 +503,13 @@ public class TransformCacheManager {
 			return null;
 		}
 
-		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("transform-cache", cacheFile, "")) {
+		QuiltZipFileSystem fs = null;
+		try {
+			fs = new QuiltZipFileSystem("transform-cache", cacheFile, "", true);
 			QuiltZipPath inner = fs.getRoot();
 			if (!FasterFiles.isRegularFile(inner.resolve(FILE_TRANSFORM_COMPLETE))) {
 				Log.info(LogCategory.CACHE, "Not reusing previous transform cache since it's incomplete!");
+				closeQuietly(fs);
 				erasePreviousTransformCache(transformCacheFolder, cacheFile, null);
 				return null;
 			}
@@ -195,12 +563,14 @@ public class TransformCacheManager {
 							+ " different keys."
 							+ " (Add '-Dloader.transform_cache.log_changed_keys=true' to see all changes).");
 					}
+					closeQuietly(fs);
 					erasePreviousTransformCache(transformCacheFolder, cacheFile, null);
 					return null;
 				}
 			}
 			return inner;
 		} catch (IOException | IOError io) {
+			closeQuietly(fs);
 			if (io instanceof PartiallyWrittenIOException) {
 				Log.info(LogCategory.CACHE, "Not reusing previous transform cache since it's incomplete!");
 			} else {
@@ -216,8 +586,27 @@ public class TransformCacheManager {
 		}
 	}
 
+	private static void closeQuietly(@Nullable QuiltZipFileSystem fs) {
+		if (fs == null) {
+			return;
+		}
+		try {
+			fs.close();
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to close the previous transform cache", e);
+		}
+	}
+
 	private static void erasePreviousTransformCache(Path transformCacheFolder, Path cacheFile, Throwable suppressed)
 		throws ModResolutionException {
+		erasePreviousTransformCache(transformCacheFolder, cacheFile, null, suppressed);
+	}
+
+	/** Deletes every file in the transform cache folder, except for the given file (if it's not null) and the
+	 * {@link #CLASS_LOAD_TRACE}. This also removes the jar copies of mods, since those can't be reused if the transform
+	 * cache changes. */
+	private static void erasePreviousTransformCache(Path transformCacheFolder, Path cacheFile, @Nullable Path keep,
+		Throwable suppressed) throws ModResolutionException {
 
 		if (!Files.exists(transformCacheFolder)) {
 			return;
@@ -227,7 +616,9 @@ public class TransformCacheManager {
 			Files.walkFileTree(transformCacheFolder, Collections.emptySet(), 1, new SimpleFileVisitor<Path>() {
 				@Override
 				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					Files.delete(file);
+					if (!file.equals(keep) && !file.getFileName().toString().equals(CLASS_LOAD_TRACE)) {
+						Files.delete(file);
+					}
 					return FileVisitResult.CONTINUE;
 				}
 			});
@@ -244,8 +635,11 @@ public class TransformCacheManager {
 
 	static final boolean WRITE_CUSTOM = true;
 
-	private static QuiltZipPath createTransformCache(Path transformCacheFile, String options, List<
-		ModLoadOption> modList) throws ModResolutionException {
+	private static QuiltZipPath createTransformCache(Path transformCacheFolder, String options,
+		List<ModLoadOption> modList, Map<String, String> modOriginHash, Map<String, Map<String, String>> segmentKeys,
+		@Nullable QuiltZipPath previous) throws ModResolutionException {
+
+		Path transformCacheFile = transformCacheFolder.resolve(CACHE_FILE);
 
 		try {
 			Files.createDirectories(transformCacheFile.getParent());
@@ -254,19 +648,29 @@ public class TransformCacheManager {
 		}
 
 		if (!Boolean.getBoolean(SystemProperties.DISABLE_OPTIMIZED_COMPRESSED_TRANSFORM_CACHE)) {
-			try (QuiltUnifiedFileSystem fs = new QuiltUnifiedFileSystem("transform-cache", true)) {
-				QuiltUnifiedPath root = fs.getRoot();
-				TransformCache cache = TransformCacheGenerator.generate(root, modList);
-				fs.dumpEntries("after-populate");
-				Files.write(root.resolve("options.txt"), options.getBytes(StandardCharsets.UTF_8));
-				Files.write(root.resolve(HIDDEN_CLASSES_PATH), cache.getHiddenClasses());
-				Files.createFile(root.resolve(FILE_TRANSFORM_COMPLETE));
-				QuiltZipFileSystem.writeQuiltCompressedFileSystem(root, transformCacheFile);
-
-				return openCache(transformCacheFile);
+			// Unchanged segments are mounted directly from the previous cache file,
+			// so the new cache is written next to it and only moved over it at the end
+			Path tempFile = transformCacheFolder.resolve(CACHE_FILE_TEMP);
+			writeTransformCache(tempFile, options, modList, modOriginHash, segmentKeys, getRemapCacheFolder(transformCacheFolder), readClassLoadOrder(transformCacheFolder), previous);
+
+			if (previous != null) {
+				closeQuietly(previous.getFileSystem());
+			}
+
+			erasePreviousTransformCache(transformCacheFolder, transformCacheFile, tempFile, null);
+
+			try {
+				Files.move(tempFile, transformCacheFile, StandardCopyOption.REPLACE_EXISTING);
 			} catch (IOException e) {
-				throw new ModResolutionException("Failed to create the transform bundle!", e);
+				throw new ModResolutionException("Failed to move the transform bundle into place!", e);
 			}
+
+			return openCache(transformCacheFile);
+		}
+
+		if (previous != null) {
+			closeQuietly(previous.getFileSystem());
+			erasePreviousTransformCache(transformCacheFolder, transformCacheFile, null);
 		}
 
 		try (FileSystemUtil.FileSystemDelegate fs = FileSystemUtil.getJarFileSystem(transformCacheFile, true)) {
@@ -275,9 +679,12 @@ public class TransformCacheManager {
 
 			Path inner = fs.get().getPath("/");
 
-			TransformCacheGenerator.generate(inner, modList);
+			TransformCache cache = TransformCacheGenerator.generate(inner, modList);
 
 			Files.write(inner.resolve("options.txt"), options.getBytes(StandardCharsets.UTF_8));
+			Files.write(inner.resolve(HIDDEN_CLASSES_PATH), new TreeSet<>(cache.getHiddenClasses()));
+			Files.write(inner.resolve(PACKAGE_ENVIRONMENTS_PATH), TransformCache.writePackageEnvironments(cache.getPackageEnvironments()));
+			writeSegments(inner, cache, segmentKeys);
 			Files.createFile(inner.resolve(FILE_TRANSFORM_COMPLETE));
 
 		} catch (IOException e) {
@@ -289,9 +696,92 @@ public class TransformCacheManager {
 		return openCache(transformCacheFile);
 	}
 
+	/** Generates a new transform cache into the given file, in the optimised compressed format. */
+	private static void writeTransformCache(Path file, String options, List<ModLoadOption> modList,
+		Map<String, String> modOriginHash, Map<String, Map<String, String>> segmentKeys, Path remapCacheFolder,
+		@Nullable ToIntFunction<String> order, @Nullable QuiltZipPath previous) throws ModResolutionException {
+
+		// Closed after the unified file system, since it still reads from the cached mods while writing
+		try (RemapCache remapCache = new RemapCache(remapCacheFolder, modOriginHash);
+			QuiltUnifiedFileSystem fs = new QuiltUnifiedFileSystem("transform-cache", true)) {
+			Files.deleteIfExists(file);
+
+			Set<ModLoadOption> reusable = Collections.emptySet();
+			if (previous != null) {
+				reusable = findReusableSegments(previous, modList, segmentKeys);
+				Log.info(LogCategory.CACHE, "Reusing " + reusable.size() + " / " + modList.size() + " mods from the previous transform cache");
+			}
+
+			QuiltUnifiedPath root = fs.getRoot();
+			TransformCache cache = TransformCacheGenerator.generate(root, modList, previous, reusable, remapCache);
+			fs.dumpEntries("after-populate");
+			Files.write(root.resolve("options.txt"), options.getBytes(StandardCharsets.UTF_8));
+			Files.write(root.resolve(HIDDEN_CLASSES_PATH), new TreeSet<>(cache.getHiddenClasses()));
+			Files.write(root.resolve(PACKAGE_ENVIRONMENTS_PATH), TransformCache.writePackageEnvironments(cache.getPackageEnvironments()));
+			writeSegments(root, cache, segmentKeys);
+			Files.createFile(root.resolve(FILE_TRANSFORM_COMPLETE));
+			QuiltZipFileSystem.writeQuiltCompressedFileSystem(root, file, order);
+		} catch (IOException | IOError e) {
+			throw new ModResolutionException("Failed to create the transform bundle!", e);
+		}
+	}
+
+	/** @return A function which ranks the class files in a transform cache by the order they were loaded in by the
+	 *         previous launch, or null if there's no trace. Class files are stored as "modid/package/Class.class", so
+	 *         the mod folder is ignored. Everything else (including classes which weren't loaded) is placed after
+	 *         them, grouped by mod and package. */
+	@Nullable
+	private static ToIntFunction<String> readClassLoadOrder(Path transformCacheFolder) {
+		Path traceFile = transformCacheFolder.resolve(CLASS_LOAD_TRACE);
+		if (!FasterFiles.isRegularFile(traceFile)) {
+			return null;
+		}
+
+		Map<String, Integer> ranks = new HashMap<>();
+		try {
+			for (String className : Files.readAllLines(traceFile, StandardCharsets.UTF_8)) {
+				ranks.putIfAbsent(LoaderUtil.getClassFileName(className), ranks.size());
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to read the class load trace " + traceFile, e);
+			return null;
+		}
+
+		return path -> ranks.getOrDefault(path.substring(path.indexOf('/') + 1), Integer.MAX_VALUE);
+	}
+
+	/** Remapped mods are stored next to the transform cache folders rather than inside them, so they survive the
+	 * transform cache being regenerated. {@link RemapCache} keeps a separate subfolder for each environment. */
+	private static Path getRemapCacheFolder(Path transformCacheFolder) {
+		return transformCacheFolder.getParent().resolve(REMAP_CACHE_FOLDER);
+	}
+
+	static void writeSegments(Path root, TransformCache cache, Map<String, Map<String, String>> segmentKeys)
+		throws IOException {
+
+		for (ModLoadOption mod : cache.getAllMods()) {
+			Path folder = writeSegmentKey(root, mod.id(), segmentKeys.get(mod.id()), cache.getModInternalsHash());
+			Files.write(folder.resolve(TransformCache.SEGMENT_HIDDEN_CLASSES), new TreeSet<>(cache.getHiddenClasses(mod)));
+			Files.write(folder.resolve(TransformCache.SEGMENT_INTERNALS), cache.getModInternals(mod));
+			Files.write(folder.resolve(TransformCache.SEGMENT_PACKAGES), TransformCache.writePackageEnvironments(cache.getPackageEnvironments(mod)));
+		}
+	}
+
+	/** @return The segment folder that the key was written to. */
+	static Path writeSegmentKey(Path root, String modId, Map<String, String> segmentKey, String modInternalsHash)
+		throws IOException {
+
+		Path folder = TransformCache.getSegmentFolder(root, modId);
+		Files.createDirectories(folder);
+		Map<String, String> key = new TreeMap<>(segmentKey);
+		key.put(KEY_MOD_INTERNALS, modInternalsHash);
+		Files.write(folder.resolve(TransformCache.SEGMENT_KEY), toString(key).getBytes(StandardCharsets.UTF_8));
+		return folder;
+	}
+
 	private static QuiltZipPath openCache(Path transformCacheFile) throws ModResolutionException {
 		try {
-			QuiltZipPath path = new QuiltZipFileSystem("transform-cache", transformCacheFile, "").getRoot();
+			QuiltZipPath path = new QuiltZipFileSystem("transform-cache", transformCacheFile, "", true).getRoot();
 			return path;
 		} catch (IOException e) {
 			// TODO: Better error message for the gui!
@@ -16,6 +16,7 @@
 
 package org.quiltmc.loader.impl.transformer;
 
+import java.util.Map;
 import java.util.Set;
 
 import org.quiltmc.loader.impl.filesystem.QuiltZipPath;
@@ -27,10 +28,14 @@ public class TransformCacheResult {
 	public final QuiltZipPath transformCacheRoot;
 	public final boolean isNewlyGenerated;
 	public final Set<String> hiddenClasses;
+	/** Every package with a package-info class in the cache, mapped to whether it can be loaded. */
+	public final Map<String, Boolean> packageEnvironments;
 
-	TransformCacheResult(QuiltZipPath transformCacheRoot, boolean isNewlyGenerated, Set<String> hiddenClasses) {
+	TransformCacheResult(QuiltZipPath transformCacheRoot, boolean isNewlyGenerated, Set<String> hiddenClasses,
+		Map<String, Boolean> packageEnvironments) {
 		this.isNewlyGenerated = isNewlyGenerated;
 		this.transformCacheRoot = transformCacheRoot;
 		this.hiddenClasses = hiddenClasses;
+		this.packageEnvironments = packageEnvironments;
 	}
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.quiltmc.loader.api.FasterFiles;
+import org.quiltmc.loader.impl.util.log.Log;
+import org.quiltmc.loader.impl.util.log.LogCategory;
+
+/** Stores the hash of every file hashed by {@link FileHasherImpl} between launches, keyed by the absolute path, size,
+ * last modified time, and file key (the inode on most unix systems) of the file. A stored hash is trusted whenever all
+ * of those match. In paranoid mode the file is also hashed again on a background thread, and the stored hash is
+ * discarded if it doesn't match. */
+@QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
+class FileHashCache {
+
+	private static final int VERSION = 1;
+	private static final boolean DISABLED = Boolean.getBoolean(SystemProperties.DISABLE_FILE_HASH_CACHE);
+	private static final boolean PARANOID = Boolean.getBoolean(SystemProperties.FILE_HASH_CACHE_PARANOID);
+
+	/** Files modified more recently than this aren't stored, since they might still be changing without their last
+	 * modified time changing. */
+	static final long MIN_AGE_MILLIS = 2000;
+
+	/** How long {@link #store()} waits for paranoid mode to finish verifying stored hashes. */
+	private static final long VERIFY_TIMEOUT_SECONDS = 10;
+
+	private static final Object LOCK = new Object();
+	private static FileHashCache instance;
+
+	private final Path file;
+	private final boolean paranoid;
+	private final Map<String, Entry> previous;
+	/** Every entry used or computed by this launch - the only ones that are stored. */
+	private final Map<String, Entry> current = new ConcurrentHashMap<>();
+	private volatile boolean changed;
+	private ExecutorService verifier;
+
+	/** @param previous The entries stored by the previous launch, from {@link #read(Path)}. */
+	FileHashCache(Path file, Map<String, Entry> previous, boolean paranoid) {
+		this.file = file;
+		this.previous = previous;
+		this.paranoid = paranoid;
+	}
+
+	static void setFile(Path file) {
+		if (DISABLED) {
+			return;
+		}
+
+		synchronized (LOCK) {
+			if (instance != null && instance.file.equals(file)) {
+				return;
+			}
+
+			FileHashCache cache = new FileHashCache(file, read(file), PARANOID);
+			Thread hook = new Thread(cache::store, "QuiltLoader File Hash Cache Writer");
+			Runtime.getRuntime().addShutdownHook(hook);
+			instance = cache;
+		}
+	}
+
+	static Map<String, Entry> read(Path file) {
+		Map<String, Entry> entries = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() == VERSION) {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String path = in.readUTF();
+					long size = in.readLong();
+					long lastModified = in.readLong();
+					String fileKey = in.readUTF();
+					byte[] hash = new byte[HashUtil.SHA1_HASH_LENGTH];
+					in.readFully(hash);
+					entries.put(path, new Entry(size, lastModified, fileKey, hash));
+				}
+			}
+		} catch (NoSuchFileException e) {
+			entries.clear();
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to read the file hash cache " + file, e);
+			entries.clear();
+		}
+		return entries;
+	}
+
+	/** Equivalent to {@link HashUtil#computeHash(Path)}, but uses the stored hash for regular files on the default file
+	 * system if they haven't changed since it was computed. */
+	static byte[] computeHash(Path path) throws IOException {
+		FileHashCache cache;
+		synchronized (LOCK) {
+			cache = instance;
+		}
+
+		if (cache == null || path.getFileSystem() != FileSystems.getDefault() || FasterFiles.isDirectory(path)) {
+			return HashUtil.computeHash(path);
+		}
+
+		return cache.get(path.toAbsolutePath());
+	}
+
+	/** @param path An absolute path to a regular file on the default file system. */
+	byte[] get(Path path) throws IOException {
+		String key = path.toString();
+		Entry stat = Entry.stat(path, null);
+
+		Entry entry = current.get(key);
+		if (entry == null) {
+			entry = previous.get(key);
+		}
+
+		if (entry != null && entry.statEquals(stat)) {
+			if (current.put(key, entry) == null && paranoid) {
+				verifyLater(path, key, entry);
+			}
+			return Arrays.copyOf(entry.hash, entry.hash.length);
+		}
+
+		byte[] hash = hash(path);
+
+		// Only store the hash if the file didn't change while we were reading it
+		Entry after = Entry.stat(path, hash);
+		if (after.statEquals(stat) && System.currentTimeMillis() - after.lastModified > MIN_AGE_MILLIS) {
+			current.put(key, after);
+			changed = true;
+		}
+
+		return hash;
+	}
+
+	byte[] hash(Path path) throws IOException {
+		return HashUtil.computeHash(path);
+	}
+
+	private void verifyLater(Path path, String key, Entry entry) {
+		synchronized (this) {
+			if (verifier == null) {
+				verifier = Executors.newSingleThreadExecutor(task -> {
+					Thread thread = new Thread(task, "QuiltLoader File Hash Verifier");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				});
+			}
+		}
+
+		verifier.execute(() -> {
+			try {
+				if (Arrays.equals(entry.hash, hash(path))) {
+					return;
+				}
+				Log.warn(
+					LogCategory.CACHE, "The file " + path + " changed without its size or modification time changing!"
+						+ " Quilt Loader will recompute its hash on the next launch."
+				);
+			} catch (IOException e) {
+				Log.warn(LogCategory.CACHE, "Failed to verify the cached hash of " + path, e);
+			}
+			current.remove(key, entry);
+			changed = true;
+		});
+	}
+
+	void store() {
+		ExecutorService verifier;
+		synchronized (this) {
+			verifier = this.verifier;
+		}
+
+		if (verifier != null) {
+			// Otherwise we might store a hash that is about to be found to be wrong
+			verifier.shutdown();
+			try {
+				verifier.awaitTermination(VERIFY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (!changed && current.size() == previous.size()) {
+			return;
+		}
+
+		Map<String, Entry> entries = new TreeMap<>(current);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			try (OutputStream stream = Files.newOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+				out.writeInt(VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					Entry value = entry.getValue();
+					out.writeUTF(entry.getKey());
+					out.writeLong(value.size);
+					out.writeLong(value.lastModified);
+					out.writeUTF(value.fileKey);
+					out.write(value.hash);
+				}
+				out.flush();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn(LogCategory.CACHE, "Failed to write the file hash cache " + file, e);
+		}
+	}
+
+	static final class Entry {
+		final long size;
+		final long lastModified;
+		final String fileKey;
+		final byte[] hash;
+
+		Entry(long size, long lastModified, String fileKey, byte[] hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+			this.hash = hash;
+		}
+
+		static Entry stat(Path path, byte[] hash) throws IOException {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			Object fileKey = attrs.fileKey();
+			return new Entry(
+				attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey == null ? "" : fileKey.toString(), hash
+			);
+		}
+
+		boolean statEquals(Entry other) {
+			return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey);
+		}
+	}
+}
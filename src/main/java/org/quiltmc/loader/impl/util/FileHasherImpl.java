@@ -44,6 +44,11 @@ public class FileHasherImpl implements QuiltFileHasher {
 		this.getParentPath = getParentPath;
 	}
 
+	/** Sets the file which hashes are stored in between launches. */
+	public static void setPersistentCacheFile(Path file) {
+		FileHashCache.setFile(file);
+	}
+
 	@Override
 	public int getHashLength() {
 		return HASH_LENGTH;
@@ -89,7 +94,7 @@ public class FileHasherImpl implements QuiltFileHasher {
 		try {
 			hash = pathHashCache.computeIfAbsent(path, p2 -> {
 				try {
-					return HashUtil.computeHash(p2);
+					return FileHashCache.computeHash(p2);
 				} catch (IOException e) {
 					throw new UncheckedIOException(e);
 				}
@@ -121,7 +126,7 @@ public class FileHasherImpl implements QuiltFileHasher {
 			@Override
 			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
 				xorNameHash(file);
-				HashUtil.xorHash(hash, HashUtil.computeHash(file));
+				HashUtil.xorHash(hash, FileHashCache.computeHash(file));
 				return FileVisitResult.CONTINUE;
 			}
 		});
@@ -19,6 +19,9 @@ package org.quiltmc.loader.impl.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 @QuiltLoaderInternal(QuiltLoaderInternalType.NEW_INTERNAL)
 public final class FileUtil {
@@ -41,4 +44,36 @@ public final class FileUtil {
 
 		return baos.toByteArray();
 	}
+
+	/** Reads all bytes from the given file, using its size so that the array doesn't need to grow or be copied. */
+	public static byte[] readAllBytes(Path path) throws IOException {
+		long size = Files.size(path);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File too large: " + path);
+		}
+		try (InputStream from = Files.newInputStream(path)) {
+			byte[] bytes = new byte[(int) size];
+			int offset = 0;
+			while (offset < bytes.length) {
+				int read = from.read(bytes, offset, bytes.length - offset);
+				if (read <= 0) {
+					// The file was shorter than expected
+					return Arrays.copyOf(bytes, offset);
+				}
+				offset += read;
+			}
+
+			int next = from.read();
+			if (next < 0) {
+				return bytes;
+			}
+
+			// The file was longer than expected
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length * 2);
+			baos.write(bytes);
+			baos.write(next);
+			baos.write(readAllBytes(from));
+			return baos.toByteArray();
+		}
+	}
 }
@@ -51,7 +51,11 @@ public class HashUtil {
 	}
 
 	public static byte[] computeHash(String text) {
-		return createDigest().digest(text.getBytes(StandardCharsets.UTF_8));
+		return computeHash(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static byte[] computeHash(byte[] data) {
+		return createDigest().digest(data);
 	}
 
 	public static String hashToString(byte[] hash) {
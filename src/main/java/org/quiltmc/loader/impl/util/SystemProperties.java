@@ -84,12 +84,46 @@ public final class SystemProperties {
 	public static final String DISABLE_OPTIMIZED_COMPRESSED_TRANSFORM_CACHE = "loader.transform_cache.disable_optimised_compression";
 	public static final String DISABLE_PRELOAD_TRANSFORM_CACHE = "loader.transform_cache.disable_preload";
 	public static final String LOG_CACHE_KEY_CHANGES = "loader.transform_cache.log_changed_keys";
+	// the maximum number of threads used to transform classes when generating the transform cache, 1 to transform on the main thread only
+	public static final String TRANSFORM_CACHE_THREADS = "loader.transform_cache.threads";
+	// a folder to store transform caches in, shared between every instance that uses it. Each instance only keeps a
+	// reference to the cache it uses, so instances with identical mods share a single cache file
+	public static final String GLOBAL_TRANSFORM_CACHE_DIR = "loader.transform_cache.global_dir";
+	// the maximum number of transform caches kept in the global transform cache folder. The least recently used ones are deleted first
+	public static final String GLOBAL_TRANSFORM_CACHE_MAX_FILES = "loader.transform_cache.global_max_files";
 	// enable useTempFile in ZipFileSystem, reduces memory usage when writing transform cache at the cost of speed
 	public static final String USE_ZIPFS_TEMP_FILE = "loader.zipfs.use_temp_file";
+	// read zips on the default file system through memory mapped buffers rather than a file channel per thread.
+	// When unset only loader's own caches are mapped, except on windows (where mapped files can't be deleted until
+	// they are garbage collected)
+	public static final String ZIPFS_MEMORY_MAPPED = "loader.zipfs.memory_mapped";
+	// copy compressed jar-in-jar files to temporary files rather than reading them into memory
+	public static final String ZIPFS_NESTED_TEMP_FILES = "loader.zipfs.nested_temp_files";
+	// don't store jar-in-jar files found during mod discovery in the cache folder, and instead read them from their containing jar every launch
+	public static final String DISABLE_NESTED_JAR_CACHE = "loader.nested_jar_cache.disable";
+	// don't store the hash of each mod file between launches, and instead read every mod file to hash it every launch
+	public static final String DISABLE_FILE_HASH_CACHE = "loader.file_hash_cache.disable";
+	// hash every mod file again on a background thread, even if its size and modification time haven't changed
+	public static final String FILE_HASH_CACHE_PARANOID = "loader.file_hash_cache.paranoid";
 	public static final String DISABLE_BEACON = "loader.disable_beacon";
 	public static final String DEBUG_DUMP_FILESYSTEM_CONTENTS = "loader.debug.filesystem.dump_contents";
 	public static final String ALWAYS_DEFER_FILESYSTEM_OPERATIONS = "loader.workaround.defer_all_filesystem_operations";
 	public static final String DISABLE_QUILT_CLASS_PATH_CUSTOM_TABLE = "loader.quilt_class_path.disable_custom_table";
+	// don't store (or read) the list of files in each jar on the class path, and instead scan them every launch
+	public static final String DISABLE_QUILT_CLASS_PATH_SNAPSHOT = "loader.quilt_class_path.disable_snapshot";
+	// don't record the order classes are loaded in, or prefetch classes from the order recorded by the previous launch
+	public static final String DISABLE_CLASS_LOAD_TRACE = "loader.class_load_trace.disable";
+	// the number of threads used to prefetch classes recorded by the previous launch, 0 to only record
+	public static final String CLASS_LOAD_TRACE_THREADS = "loader.class_load_trace.threads";
+	// experimental: the number of threads used to load (and mixin) the classes loaded by the previous launch once mixin
+	// has been initialised, rather than waiting for the game to load them. 0 (the default) disables preloading
+	public static final String CLASS_PRELOAD_THREADS = "loader.class_preload.threads";
+	// time each step of loading a class in knot, per mod, and emit a JFR event for each class while JFR is recording
+	public static final String ENABLE_CLASS_LOAD_METRICS = "loader.class_load_metrics.enable";
+	// register an MXBean with the time spent loading classes in knot, per mod (this also enables the metrics)
+	public static final String CLASS_LOAD_METRICS_JMX = "loader.class_load_metrics.jmx";
+	// always search the jars on the class path for missing resources, rather than checking a bloom filter of their contents first
+	public static final String DISABLE_KNOT_RESOURCE_FILTER = "loader.knot.disable_resource_filter";
 
 	// ##############
 	// # Validation #
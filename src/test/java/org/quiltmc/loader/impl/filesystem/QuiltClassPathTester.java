@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.filesystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class QuiltClassPathTester {
+
+	@Test
+	public void testStringAndPathEntries() throws IOException {
+		try (QuiltMemoryFileSystem a = new QuiltMemoryFileSystem.ReadWrite("class_path_a", true);
+			QuiltMemoryFileSystem b = new QuiltMemoryFileSystem.ReadWrite("class_path_b", true)) {
+
+			QuiltClassPath.CompactFileMap map = new QuiltClassPath.CompactFileMap();
+			Path fromA = a.getRoot().resolve("pkg/A.class");
+			map.put(fromA);
+			map.put(b.getRoot(), "/pkg/A.class");
+			map.put(b.getRoot(), "/pkg/B.class");
+
+			Assertions.assertSame(fromA, map.getFirst("/pkg/A.class"));
+
+			Path fromB = map.getFirst("/pkg/B.class");
+			Assertions.assertEquals(b.getRoot().resolve("pkg/B.class"), fromB);
+
+			List<Path> all = new ArrayList<>();
+			map.getAll("/pkg/A.class", all);
+			Assertions.assertEquals(Arrays.asList(fromA, b.getRoot().resolve("/pkg/A.class")), all);
+
+			Assertions.assertNull(map.getFirst("/pkg/C.class"));
+			Assertions.assertNull(map.getFirst("/pkg"));
+		}
+	}
+
+	@Test
+	public void testRehashKeepsOrder() throws IOException {
+		try (QuiltMemoryFileSystem a = new QuiltMemoryFileSystem.ReadWrite("class_path_rehash_a", true);
+			QuiltMemoryFileSystem b = new QuiltMemoryFileSystem.ReadWrite("class_path_rehash_b", true);
+			QuiltMemoryFileSystem c = new QuiltMemoryFileSystem.ReadWrite("class_path_rehash_c", true)) {
+
+			QuiltClassPath.CompactFileMap map = new QuiltClassPath.CompactFileMap();
+			List<Path> roots = Arrays.asList(a.getRoot(), b.getRoot(), c.getRoot());
+
+			// "Aa" and "BB" have the same hash code
+			Assertions.assertEquals("/Aa".hashCode(), "/BB".hashCode());
+
+			for (Path root : roots) {
+				map.put(root.resolve("META-INF/MANIFEST.MF"));
+				map.put(root, "/Aa");
+				map.put(root, "/BB");
+				// Enough to rehash the table a few times
+				for (int i = 0; i < 500; i++) {
+					map.put(root, "/" + root.getFileSystem() + "/" + i + ".class");
+				}
+			}
+
+			for (String key : new String[] { "/META-INF/MANIFEST.MF", "/Aa", "/BB" }) {
+				List<Path> all = new ArrayList<>();
+				map.getAll(key, all);
+				Assertions.assertEquals(3, all.size(), key);
+				for (int i = 0; i < roots.size(); i++) {
+					Assertions.assertEquals(roots.get(i).resolve(key), all.get(i), key);
+				}
+				Assertions.assertEquals(roots.get(0).resolve(key), map.getFirst(key));
+			}
+
+			for (Path root : roots) {
+				for (int i = 0; i < 500; i++) {
+					String key = "/" + root.getFileSystem() + "/" + i + ".class";
+					Assertions.assertEquals(root.resolve(key), map.getFirst(key));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentPutAndGet() throws Exception {
+		try (QuiltMemoryFileSystem fs = new QuiltMemoryFileSystem.ReadWrite("class_path_concurrent", true)) {
+			QuiltClassPath.CompactFileMap map = new QuiltClassPath.CompactFileMap();
+			Path root = fs.getRoot();
+			int count = 20_000;
+			AtomicInteger added = new AtomicInteger();
+			AtomicBoolean done = new AtomicBoolean();
+			ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+			Thread[] readers = new Thread[4];
+			for (int r = 0; r < readers.length; r++) {
+				int seed = r;
+				readers[r] = new Thread(() -> {
+					try {
+						int i = seed;
+						while (!done.get()) {
+							int max = added.get();
+							if (max == 0) {
+								continue;
+							}
+							i = (i * 31 + 17) & Integer.MAX_VALUE;
+							String key = "/pkg/" + (i % max) + ".class";
+							Path path = map.getFirst(key);
+							Assertions.assertEquals(root.resolve(key), path, key);
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}, "QuiltClassPathTester reader " + r);
+				readers[r].start();
+			}
+
+			for (int i = 0; i < count; i++) {
+				map.put(root, "/pkg/" + i + ".class");
+				added.set(i + 1);
+			}
+			done.set(true);
+
+			for (Thread reader : readers) {
+				reader.join();
+			}
+
+			for (Throwable failure : failures) {
+				Assertions.fail(failure);
+			}
+
+			for (int i = 0; i < count; i++) {
+				String key = "/pkg/" + i + ".class";
+				Assertions.assertEquals(root.resolve(key), map.getFirst(key));
+			}
+		}
+	}
+}
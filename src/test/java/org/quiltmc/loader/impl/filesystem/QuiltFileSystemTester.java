@@ -16,7 +16,12 @@
 
 package org.quiltmc.loader.impl.filesystem;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -27,12 +32,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledOnOs;
 import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -82,6 +92,183 @@ public class QuiltFileSystemTester {
 		}
 	}
 
+	@Test
+	public void testZipCentralDirectory(@TempDir Path dir) throws IOException {
+		Path zip = dir.resolve("test.zip");
+		byte[] stored = "stored entry".getBytes(StandardCharsets.UTF_8);
+		byte[] deflated = new byte[100_000];
+		for (int i = 0; i < deflated.length; i++) {
+			deflated[i] = (byte) (i % 7);
+		}
+
+		try (OutputStream out = Files.newOutputStream(zip)) {
+			// Extra data before the zip itself, like a self-extracting archive
+			out.write("prefix".getBytes(StandardCharsets.UTF_8));
+			try (ZipOutputStream zos = new ZipOutputStream(out)) {
+				ZipEntry storedEntry = new ZipEntry("a/stored.txt");
+				storedEntry.setMethod(ZipEntry.STORED);
+				storedEntry.setSize(stored.length);
+				CRC32 crc = new CRC32();
+				crc.update(stored);
+				storedEntry.setCrc(crc.getValue());
+				zos.putNextEntry(storedEntry);
+				zos.write(stored);
+				zos.closeEntry();
+
+				// Deflated entries are written with a data descriptor, so the local header doesn't know the sizes
+				zos.putNextEntry(new ZipEntry("a/b/deflated.bin"));
+				zos.write(deflated);
+				zos.closeEntry();
+
+				zos.putNextEntry(new ZipEntry("empty/"));
+				zos.closeEntry();
+			}
+		}
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("test_zip", zip, "")) {
+			Path root = fs.getRoot();
+			Assertions.assertArrayEquals(stored, Files.readAllBytes(root.resolve("a/stored.txt")));
+			Assertions.assertArrayEquals(deflated, Files.readAllBytes(root.resolve("a/b/deflated.bin")));
+			eq(deflated.length, (int) Files.size(root.resolve("a/b/deflated.bin")));
+			_true(Files.isDirectory(root.resolve("empty")));
+
+			try (SeekableByteChannel channel = Files.newByteChannel(root.resolve("a/stored.txt"))) {
+				channel.position(7);
+				ByteBuffer buffer = ByteBuffer.allocate(5);
+				channel.read(buffer);
+				eq("entry", new String(buffer.array(), StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	@Test
+	public void testNestedStoredZip(@TempDir Path dir) throws IOException {
+		byte[] content = "nested content".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream innerBytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zos = new ZipOutputStream(innerBytes)) {
+			zos.putNextEntry(new ZipEntry("inner.txt"));
+			zos.write(content);
+			zos.closeEntry();
+		}
+		byte[] inner = innerBytes.toByteArray();
+
+		Path zip = dir.resolve("outer.zip");
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+			zos.putNextEntry(new ZipEntry("padding.txt"));
+			zos.write("padding".getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+
+			ZipEntry innerEntry = new ZipEntry("META-INF/jars/inner.jar");
+			innerEntry.setMethod(ZipEntry.STORED);
+			innerEntry.setSize(inner.length);
+			CRC32 crc = new CRC32();
+			crc.update(inner);
+			innerEntry.setCrc(crc.getValue());
+			zos.putNextEntry(innerEntry);
+			zos.write(inner);
+			zos.closeEntry();
+		}
+
+		try (QuiltZipFileSystem outer = new QuiltZipFileSystem("outer", zip, "")) {
+			Path innerPath = outer.getRoot().resolve("META-INF/jars/inner.jar");
+			try (QuiltZipFileSystem nested = new QuiltZipFileSystem("inner", innerPath, "")) {
+				_true(nested.source instanceof QuiltZipFileSystem.WindowSource);
+				Assertions.assertArrayEquals(content, Files.readAllBytes(nested.getRoot().resolve("inner.txt")));
+			}
+		}
+	}
+
+	@Test
+	public void testQuiltCompressedFileSystem(@TempDir Path dir) throws IOException {
+		Path src = dir.resolve("src");
+		Files.createDirectories(src.resolve("mod/a/b"));
+		Files.createDirectories(src.resolve("other/empty"));
+		byte[] large = new byte[100_000];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) (i % 13);
+		}
+		Files.write(src.resolve("mod/a/b/C.class"), large);
+		Files.write(src.resolve("mod/a/x.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+		Files.write(src.resolve("options.txt"), new byte[0]);
+
+		Path zip = dir.resolve("cache.zip");
+		QuiltZipFileSystem.writeQuiltCompressedFileSystem(src, zip);
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("test_compressed", zip, "")) {
+			Path root = fs.getRoot();
+			Assertions.assertArrayEquals(large, Files.readAllBytes(root.resolve("mod/a/b/C.class")));
+			eq("hello", new String(Files.readAllBytes(root.resolve("mod/a/x.txt")), StandardCharsets.UTF_8));
+			eq(0, (int) Files.size(root.resolve("options.txt")));
+			_true(Files.isDirectory(root.resolve("other/empty")));
+			_false(Files.exists(root.resolve("mod/missing")));
+
+			Set<String> children = new HashSet<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+				for (Path child : stream) {
+					children.add(child.toString());
+				}
+			}
+			eq(set("/mod", "/other", "/options.txt"), children);
+
+			try (QuiltZipFileSystem sub = new QuiltZipFileSystem("test_compressed_sub", (QuiltZipPath) root.resolve("mod"))) {
+				eq("hello", new String(Files.readAllBytes(sub.getRoot().resolve("a/x.txt")), StandardCharsets.UTF_8));
+				Set<String> paths = new HashSet<>();
+				for (Path path : sub.getEntryPathIterator()) {
+					paths.add(path.toString());
+				}
+				eq(set("/", "/a", "/a/b", "/a/b/C.class", "/a/x.txt"), paths);
+			}
+		}
+	}
+
+	@Test
+	public void testQuiltCompressedFileSystemOrder(@TempDir Path dir) throws IOException {
+		Path src = dir.resolve("src");
+		Files.createDirectories(src.resolve("mod/a"));
+		String[] names = { "mod/a/First.class", "mod/a/Second.class", "mod/a/Third.class", "options.txt" };
+		Map<String, byte[]> contents = new HashMap<>();
+		Random random = new Random(42);
+		for (String name : names) {
+			// Random data can't be compressed, so deflate stores it as-is
+			byte[] data = new byte[4096];
+			random.nextBytes(data);
+			contents.put(name, data);
+			Files.write(src.resolve(name), data);
+		}
+
+		Map<String, Integer> ranks = new HashMap<>();
+		ranks.put("mod/a/Third.class", 0);
+		ranks.put("mod/a/First.class", 1);
+
+		Path zip = dir.resolve("cache.zip");
+		QuiltZipFileSystem.writeQuiltCompressedFileSystem(src, zip, name -> ranks.getOrDefault(name, Integer.MAX_VALUE));
+
+		byte[] raw = Files.readAllBytes(zip);
+		int third = indexOf(raw, contents.get("mod/a/Third.class"));
+		int first = indexOf(raw, contents.get("mod/a/First.class"));
+		int second = indexOf(raw, contents.get("mod/a/Second.class"));
+		_true(third >= 0 && third < first && first < second);
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("test_compressed_order", zip, "")) {
+			for (String name : names) {
+				Assertions.assertArrayEquals(contents.get(name), Files.readAllBytes(fs.getRoot().resolve(name)));
+			}
+		}
+	}
+
+	/** @return The index of the first 64 bytes of the given data in the array, or -1 if it isn't found. */
+	private static int indexOf(byte[] array, byte[] data) {
+		outer: for (int i = 0; i <= array.length - 64; i++) {
+			for (int j = 0; j < 64; j++) {
+				if (array[i + j] != data[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
 	@SafeVarargs
 	private static <T> Set<T> set(T... values) {
 		Set<T> set = new HashSet<>();
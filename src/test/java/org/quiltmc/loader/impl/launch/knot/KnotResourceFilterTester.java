@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.launch.knot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class KnotResourceFilterTester {
+
+	private static Path createJar(Path dir, String name, Manifest manifest, String... entries) throws IOException {
+		Path jar = dir.resolve(name);
+		try (OutputStream out = Files.newOutputStream(jar);
+			JarOutputStream jarOut = manifest != null ? new JarOutputStream(out, manifest) : new JarOutputStream(out)) {
+
+			for (String entry : entries) {
+				jarOut.putNextEntry(new JarEntry(entry));
+				jarOut.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	private static URL url(Path path) throws IOException {
+		return path.toUri().toURL();
+	}
+
+	/** Checks that the filter never hides a resource that {@link URLClassLoader} would find, and that it does hide
+	 * every name in the "missing" array. */
+	private static void check(KnotResourceFilter filter, URL[] urls, String[] present, String[] missing)
+		throws IOException {
+
+		try (URLClassLoader loader = new URLClassLoader(urls, null)) {
+			for (String name : present) {
+				Assertions.assertNotNull(loader.findResource(name), name);
+				Assertions.assertTrue(filter.mightContain(name), name);
+			}
+			for (String name : missing) {
+				Assertions.assertNull(loader.findResource(name), name);
+				Assertions.assertFalse(filter.mightContain(name), name);
+			}
+		}
+	}
+
+	@Test
+	public void testJarsAddedAfterQuery(@TempDir Path dir) throws IOException {
+		URL first = url(createJar(dir, "first.jar", null, "com/example/First.class"));
+		URL second = url(createJar(dir, "second.jar", null, "com/example/Second.class"));
+
+		KnotResourceFilter filter = new KnotResourceFilter();
+		filter.add(first);
+		check(filter, new URL[] { first }, new String[] { "com/example/First.class" },
+			new String[] { "com/example/Second.class" });
+
+		filter.add(second);
+		check(filter, new URL[] { first, second },
+			new String[] { "com/example/First.class", "com/example/Second.class" },
+			new String[] { "com/example/Third.class" });
+	}
+
+	@Test
+	public void testFolderEntries(@TempDir Path dir) throws IOException {
+		URL jar = url(createJar(dir, "folders.jar", null, "assets/", "assets/example/", "assets/example/icon.png",
+			"data/example/recipe.json"));
+
+		KnotResourceFilter filter = new KnotResourceFilter();
+		filter.add(jar);
+		check(filter, new URL[] { jar },
+			new String[] { "assets/", "assets", "assets/example/", "assets/example", "assets/example/icon.png" },
+			// Folders without their own entry can't be found in a jar
+			new String[] { "data/", "data/example", "data/example/missing.json" });
+	}
+
+	@Test
+	public void testVersionedEntries(@TempDir Path dir) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+		URL jar = url(createJar(dir, "versioned.jar", manifest, "com/example/Base.class",
+			"META-INF/versions/9/com/example/Versioned.class"));
+
+		KnotResourceFilter filter = new KnotResourceFilter();
+		filter.add(jar);
+		Assertions.assertTrue(filter.mightContain("com/example/Base.class"));
+		Assertions.assertTrue(filter.mightContain("com/example/Versioned.class"));
+		Assertions.assertTrue(filter.mightContain("META-INF/versions/9/com/example/Versioned.class"));
+		Assertions.assertFalse(filter.mightContain("com/example/Missing.class"));
+	}
+
+	@Test
+	public void testMissingJarIsIgnored(@TempDir Path dir) throws IOException {
+		URL jar = url(createJar(dir, "present.jar", null, "com/example/Present.class"));
+
+		KnotResourceFilter filter = new KnotResourceFilter();
+		filter.add(url(dir.resolve("missing.jar")));
+		filter.add(jar);
+		Assertions.assertTrue(filter.mightContain("com/example/Present.class"));
+		Assertions.assertFalse(filter.mightContain("com/example/Missing.class"));
+	}
+
+	@Test
+	public void testClassPathFallback(@TempDir Path dir) throws IOException {
+		URL other = url(createJar(dir, "other.jar", null, "com/example/Other.class"));
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "other.jar");
+		URL jar = url(createJar(dir, "main.jar", manifest, "com/example/Main.class"));
+
+		KnotResourceFilter filter = new KnotResourceFilter();
+		filter.add(jar);
+		// Found through the Class-Path of main.jar, which the filter doesn't follow
+		check(filter, new URL[] { jar }, new String[] { "com/example/Main.class", "com/example/Other.class" },
+			new String[0]);
+		Assertions.assertTrue(filter.mightContain("com/example/Missing.class"));
+	}
+
+	@Test
+	public void testDirectoryFallback(@TempDir Path dir) throws IOException {
+		URL jar = url(createJar(dir, "first.jar", null, "com/example/First.class"));
+		Path folder = dir.resolve("classes");
+		Files.createDirectories(folder.resolve("com/example"));
+		Files.createFile(folder.resolve("com/example/Folder.class"));
+		URL folderUrl = url(folder);
+		Assertions.assertTrue(folderUrl.getPath().endsWith("/"));
+
+		KnotResourceFilter filter = new KnotResourceFilter();
+		filter.add(jar);
+		Assertions.assertFalse(filter.mightContain("com/example/Folder.class"));
+
+		// Files can be added to folders at any time, so they can't be filtered
+		filter.add(folderUrl);
+		check(filter, new URL[] { jar, folderUrl },
+			new String[] { "com/example/First.class", "com/example/Folder.class" }, new String[0]);
+		Assertions.assertTrue(filter.mightContain("com/example/Missing.class"));
+	}
+}
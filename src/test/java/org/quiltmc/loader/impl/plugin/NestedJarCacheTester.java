@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.quiltmc.loader.impl.filesystem.QuiltZipFileSystem;
+
+public class NestedJarCacheTester {
+
+	private static final String COMPRESSED = "META-INF/jars/compressed.jar";
+	private static final String STORED = "META-INF/jars/stored.jar";
+
+	private static byte[] createInnerJar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+			zos.putNextEntry(new ZipEntry("inner.txt"));
+			for (int i = 0; i < 100; i++) {
+				zos.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			zos.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Path createOuterJar(Path dir, byte[] inner) throws IOException {
+		Path zip = dir.resolve("outer.jar");
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+			zos.putNextEntry(new ZipEntry(COMPRESSED));
+			zos.write(inner);
+			zos.closeEntry();
+
+			ZipEntry stored = new ZipEntry(STORED);
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(inner.length);
+			CRC32 crc = new CRC32();
+			crc.update(inner);
+			stored.setCrc(crc.getValue());
+			zos.putNextEntry(stored);
+			zos.write(inner);
+			zos.closeEntry();
+		}
+		return zip;
+	}
+
+	private static List<String> inner(Path zip) {
+		return Collections.singletonList(zip.toString());
+	}
+
+	@Test
+	public void testCacheHit(@TempDir Path dir) throws IOException {
+		byte[] inner = createInnerJar();
+		Path outer = createOuterJar(dir, inner);
+		Path folder = dir.resolve("cache");
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("outer", outer, "")) {
+			Path zip = fs.getRoot().resolve(COMPRESSED);
+
+			Path cached = new NestedJarCache(folder).get(zip, outer, inner(zip));
+			Assertions.assertNotNull(cached);
+			Assertions.assertArrayEquals(inner, Files.readAllBytes(cached));
+
+			FileTime old = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+			Files.setLastModifiedTime(cached, old);
+
+			// The next launch should reuse the file without writing it again
+			Path again = new NestedJarCache(folder).get(zip, outer, inner(zip));
+			Assertions.assertEquals(cached, again);
+			Assertions.assertEquals(old, Files.getLastModifiedTime(again));
+			Assertions.assertArrayEquals(inner, Files.readAllBytes(again));
+		}
+	}
+
+	@Test
+	public void testStoredJarIsNotCached(@TempDir Path dir) throws IOException {
+		Path outer = createOuterJar(dir, createInnerJar());
+		Path folder = dir.resolve("cache");
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("outer", outer, "")) {
+			Path zip = fs.getRoot().resolve(STORED);
+			Assertions.assertTrue(QuiltZipFileSystem.canReadInPlace(zip));
+			Assertions.assertFalse(QuiltZipFileSystem.canReadInPlace(fs.getRoot().resolve(COMPRESSED)));
+
+			Assertions.assertNull(new NestedJarCache(folder).get(zip, outer, inner(zip)));
+			Assertions.assertFalse(Files.exists(folder));
+		}
+	}
+
+	@Test
+	public void testStaleOuterModifiedTime(@TempDir Path dir) throws IOException {
+		byte[] inner = createInnerJar();
+		Path outer = createOuterJar(dir, inner);
+		Path folder = dir.resolve("cache");
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("outer", outer, "")) {
+			Path zip = fs.getRoot().resolve(COMPRESSED);
+			Path cached = new NestedJarCache(folder).get(zip, outer, inner(zip));
+			Assertions.assertNotNull(cached);
+
+			FileTime modified = Files.getLastModifiedTime(outer);
+			Files.setLastModifiedTime(outer, FileTime.fromMillis(modified.toMillis() + 10_000));
+
+			NestedJarCache next = new NestedJarCache(folder);
+			Path changed = next.get(zip, outer, inner(zip));
+			Assertions.assertNotNull(changed);
+			Assertions.assertNotEquals(cached, changed);
+			Assertions.assertArrayEquals(inner, Files.readAllBytes(changed));
+
+			// The old file is no longer used, so it's removed
+			next.prune();
+			Assertions.assertFalse(Files.exists(cached));
+			Assertions.assertTrue(Files.exists(changed));
+		}
+	}
+
+	@Test
+	public void testPrune(@TempDir Path dir) throws IOException {
+		byte[] inner = createInnerJar();
+		Path outer = createOuterJar(dir, inner);
+		Path folder = dir.resolve("cache");
+
+		// Nothing has been cached yet
+		new NestedJarCache(folder).prune();
+
+		try (QuiltZipFileSystem fs = new QuiltZipFileSystem("outer", outer, "")) {
+			Path zip = fs.getRoot().resolve(COMPRESSED);
+			NestedJarCache first = new NestedJarCache(folder);
+			Path cached = first.get(zip, outer, inner(zip));
+			Assertions.assertNotNull(cached);
+			Path unrelated = folder.resolve("unrelated.jar");
+			Files.write(unrelated, inner);
+
+			first.prune();
+			Assertions.assertTrue(Files.exists(cached));
+			Assertions.assertFalse(Files.exists(unrelated));
+
+			// A launch which doesn't open the nested jar removes it
+			new NestedJarCache(folder).prune();
+			Assertions.assertFalse(Files.exists(cached));
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.quiltmc.loader.api.plugin.QuiltPluginTask;
+import org.quiltmc.loader.impl.discovery.ModSolvingError;
+
+public class QuiltPluginTaskSchedulerTester {
+
+	@Test
+	public void testSingleThreadedRunsInOrder() throws ExecutionException, ModSolvingError {
+		QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(true);
+		List<String> order = new ArrayList<>();
+
+		scheduler.addMainThreadTask(() -> order.add("main 1"));
+		QuiltPluginTaskImpl<String> a = scheduler.submit(() -> {
+			order.add("a");
+			return "a";
+		});
+		QuiltPluginTaskImpl<String> b = scheduler.submitAfter(() -> {
+			order.add("b");
+			return "b";
+		}, a);
+		scheduler.addMainThreadTask(() -> {
+			order.add("main 2");
+			scheduler.addMainThreadTask(() -> order.add("main 3"));
+		});
+
+		// Submitted tasks run immediately, main thread tasks wait for runTasks()
+		Assertions.assertEquals(Arrays.asList("a", "b"), order);
+		Assertions.assertEquals("a", a.getResult());
+		Assertions.assertEquals("b", b.getResult());
+
+		scheduler.runTasks();
+		Assertions.assertEquals(Arrays.asList("a", "b", "main 1", "main 2", "main 3"), order);
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testMainThreadTasksRunInOrder() throws ModSolvingError {
+		QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(false);
+		try {
+			Thread mainThread = Thread.currentThread();
+			List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+			for (int i = 0; i < 10; i++) {
+				int index = i;
+				scheduler.addMainThreadTask(() -> {
+					Assertions.assertSame(mainThread, Thread.currentThread());
+					order.add(index);
+				});
+			}
+			// Added from a worker thread
+			scheduler.submit(() -> {
+				scheduler.addMainThreadTask(() -> {
+					Assertions.assertSame(mainThread, Thread.currentThread());
+					order.add(10);
+				});
+				return null;
+			});
+
+			scheduler.runTasks();
+			Assertions.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10), order);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testSubmitAfterWaitsForDependencies() throws Exception {
+		QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(false);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			AtomicInteger finished = new AtomicInteger();
+
+			QuiltPluginTaskImpl<Integer> first = scheduler.submit(() -> {
+				release.await();
+				return finished.incrementAndGet();
+			});
+			QuiltPluginTaskImpl<Integer> second = scheduler.submit(() -> finished.incrementAndGet());
+			QuiltPluginTaskImpl<Integer> after = scheduler.submitAfter(() -> {
+				Assertions.assertTrue(first.isDone());
+				Assertions.assertTrue(second.isDone());
+				return finished.get();
+			}, first, second);
+
+			Thread.sleep(50);
+			Assertions.assertFalse(after.isDone());
+
+			release.countDown();
+			scheduler.runTasks();
+
+			Assertions.assertTrue(after.isDone());
+			Assertions.assertEquals(2, (int) after.getResult());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testRunTasksWaitsForNestedTasks() throws ModSolvingError {
+		QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(false);
+		try {
+			AtomicInteger count = new AtomicInteger();
+			List<QuiltPluginTaskImpl<?>> tasks = Collections.synchronizedList(new ArrayList<>());
+
+			for (int i = 0; i < 8; i++) {
+				tasks.add(scheduler.submit(() -> {
+					for (int j = 0; j < 8; j++) {
+						QuiltPluginTaskImpl<?> inner = scheduler.submit(() -> {
+							Thread.sleep(1);
+							return count.incrementAndGet();
+						});
+						tasks.add(inner);
+						tasks.add(scheduler.submitAfter(() -> count.incrementAndGet(), inner));
+					}
+					return null;
+				}));
+			}
+
+			scheduler.runTasks();
+			Assertions.assertEquals(8 * 8 * 2, count.get());
+			Assertions.assertEquals(8 + 8 * 8 * 2, tasks.size());
+			for (QuiltPluginTaskImpl<?> task : tasks) {
+				Assertions.assertTrue(task.isDone());
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailurePropagation() throws ExecutionException, ModSolvingError {
+		for (boolean singleThreaded : new boolean[] { true, false }) {
+			QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(singleThreaded);
+			try {
+				IllegalStateException cause = new IllegalStateException("expected");
+				QuiltPluginTaskImpl<String> failed = scheduler.submit(() -> {
+					throw cause;
+				});
+				// Dependent tasks still run, and can check their dependencies for failures themselves
+				QuiltPluginTaskImpl<Boolean> dependent = scheduler.submitAfter(
+					() -> failed.getException() != null, failed
+				);
+
+				scheduler.runTasks();
+
+				Throwable exception = failed.getException();
+				Assertions.assertNotNull(exception);
+				Assertions.assertSame(cause, exception.getCause());
+				ExecutionException thrown = Assertions.assertThrows(ExecutionException.class, failed::getResult);
+				Assertions.assertSame(cause, thrown.getCause());
+
+				Assertions.assertNull(dependent.getException());
+				Assertions.assertEquals(true, dependent.getResult());
+			} finally {
+				scheduler.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testUnknownDependency() {
+		QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(true);
+		Assertions.assertThrows(
+			IllegalArgumentException.class, () -> scheduler.submitAfter(() -> null, new ForeignTask())
+		);
+	}
+
+	@Test
+	public void testSubmitAfterShutdown() throws Exception {
+		QuiltPluginTaskScheduler scheduler = new QuiltPluginTaskScheduler(false);
+		CountDownLatch release = new CountDownLatch(1);
+		QuiltPluginTaskImpl<String> slow = scheduler.submit(() -> {
+			release.await();
+			return "slow";
+		});
+		QuiltPluginTaskImpl<String> after = scheduler.submitAfter(() -> "after", slow);
+
+		scheduler.shutdown();
+		// The executor rejects this, so the dependent task has to run on the thread that completed the dependency
+		release.countDown();
+
+		QuiltPluginTaskImpl<String> late = scheduler.submit(() -> "late");
+		Assertions.assertTrue(late.isDone());
+		Assertions.assertEquals("late", late.getResult());
+
+		Thread waiter = new Thread(() -> {
+			try {
+				scheduler.runTasks();
+			} catch (ModSolvingError e) {
+				throw new AssertionError(e);
+			}
+		}, "QuiltPluginTaskSchedulerTester waiter");
+		waiter.setDaemon(true);
+		waiter.start();
+		waiter.join(TimeUnit.SECONDS.toMillis(10));
+		Assertions.assertFalse(waiter.isAlive(), "runTasks() never finished");
+
+		Assertions.assertEquals("slow", slow.getResult());
+		Assertions.assertEquals("after", after.getResult());
+	}
+
+	/** Not created by {@link QuiltPluginTaskScheduler}. */
+	static final class ForeignTask implements QuiltPluginTask<Object> {
+		@Override
+		public boolean isDone() {
+			return true;
+		}
+
+		@Override
+		public Throwable getException() {
+			return null;
+		}
+
+		@Override
+		public Object getResult() {
+			return null;
+		}
+	}
+}
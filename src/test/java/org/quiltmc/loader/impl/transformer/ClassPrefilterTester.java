@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.transformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.quiltmc.loader.api.minecraft.ClientOnly;
+import org.quiltmc.loader.api.minecraft.DedicatedServerOnly;
+import org.quiltmc.loader.impl.QuiltLoaderImpl;
+
+import net.fabricmc.api.EnvType;
+
+public class ClassPrefilterTester {
+
+	@ClientOnly
+	public static class ClientOnlyClass {
+		public void run() {}
+	}
+
+	public static class ServerOnlyMethod {
+		@DedicatedServerOnly
+		public void run() {}
+	}
+
+	public static class Common {
+		public static final long CONSTANT = 1;
+		private double value;
+
+		public void run() {}
+
+		private void runPrivate() {}
+
+		public static class PublicInner {}
+	}
+
+	public static class PackagePrivateField {
+		int value;
+	}
+
+	public static class ProtectedMethod {
+		protected void run() {}
+	}
+
+	static class PackagePrivateClass {
+		public void run() {}
+	}
+
+	public static class PackagePrivateInner {
+		static class Inner {}
+	}
+
+	private static byte[] read(Class<?> cls) throws IOException {
+		String path = cls.getName().replace('.', '/') + ".class";
+		try (InputStream stream = cls.getClassLoader().getResourceAsStream(path)) {
+			Assertions.assertNotNull(stream, path);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = stream.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static boolean mightStripEnvironment(Class<?> cls) throws IOException {
+		byte[] bytes = read(cls);
+		ClassReader reader = new ClassReader(bytes);
+		boolean result = ClassPrefilter.mightStripEnvironment(reader, bytes);
+
+		// Never skip a class which EnvironmentStrippingData would change
+		for (EnvType envType : EnvType.values()) {
+			EnvironmentStrippingData data = new EnvironmentStrippingData(QuiltLoaderImpl.ASM_VERSION, envType);
+			reader.accept(data, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+			if (data.stripEntireClass() || !data.isEmpty()) {
+				Assertions.assertTrue(result, cls.getName());
+			}
+		}
+		return result;
+	}
+
+	private static boolean hasPackageAccess(Class<?> cls) throws IOException {
+		ClassReader reader = new ClassReader(read(cls));
+		boolean result = ClassPrefilter.hasPackageAccess(reader);
+
+		// The prefilter must agree exactly with whether PackageAccessFixer changes anything
+		ClassWriter copy = new ClassWriter(0);
+		reader.accept(copy, 0);
+		ClassWriter fixed = new ClassWriter(0);
+		reader.accept(new PackageAccessFixer(QuiltLoaderImpl.ASM_VERSION, fixed), 0);
+		Assertions.assertEquals(!Arrays.equals(copy.toByteArray(), fixed.toByteArray()), result, cls.getName());
+		return result;
+	}
+
+	@Test
+	public void testEnvironmentAnnotations() throws IOException {
+		Assertions.assertTrue(mightStripEnvironment(ClientOnlyClass.class));
+		Assertions.assertTrue(mightStripEnvironment(ServerOnlyMethod.class));
+		Assertions.assertFalse(mightStripEnvironment(Common.class));
+		Assertions.assertFalse(mightStripEnvironment(PackagePrivateField.class));
+	}
+
+	@Test
+	public void testPackageAccess() throws IOException {
+		Assertions.assertTrue(hasPackageAccess(PackagePrivateField.class));
+		Assertions.assertTrue(hasPackageAccess(ProtectedMethod.class));
+		Assertions.assertTrue(hasPackageAccess(PackagePrivateClass.class));
+		Assertions.assertTrue(hasPackageAccess(PackagePrivateInner.class));
+		Assertions.assertFalse(hasPackageAccess(Common.class));
+		Assertions.assertFalse(hasPackageAccess(ClientOnlyClass.class));
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.transformer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.quiltmc.loader.api.gui.QuiltLoaderIcon;
+import org.quiltmc.loader.api.gui.QuiltLoaderText;
+import org.quiltmc.loader.api.plugin.ModContainerExt;
+import org.quiltmc.loader.api.plugin.ModMetadataExt;
+import org.quiltmc.loader.api.plugin.QuiltPluginContext;
+import org.quiltmc.loader.api.plugin.solver.ModLoadOption;
+import org.quiltmc.loader.api.plugin.solver.QuiltFileHasher;
+import org.quiltmc.loader.impl.QuiltLoaderImpl;
+import org.quiltmc.loader.impl.discovery.ModResolutionException;
+import org.quiltmc.loader.impl.filesystem.QuiltMemoryFileSystem;
+
+public class TransformCacheSegmentTester {
+
+	private static Map<String, String> key(String origin) {
+		Map<String, String> key = new TreeMap<>();
+		key.put("origin", origin);
+		return key;
+	}
+
+	@Test
+	public void testUnchangedSegmentIsReused() throws IOException, ModResolutionException {
+		try (QuiltMemoryFileSystem fs = new QuiltMemoryFileSystem.ReadWrite("segments_reused", true)) {
+			Path root = fs.getRoot();
+			TransformCacheManager.writeSegmentKey(root, "a", key("a.jar 1234"), "internals");
+			TransformCacheManager.writeSegmentKey(root, "b", key("b.jar 5678"), "internals");
+
+			Assertions.assertTrue(TransformCacheManager.isSegmentValid(root, "a", key("a.jar 1234")));
+
+			Map<String, Map<String, String>> keys = new TreeMap<>();
+			keys.put("a", key("a.jar 1234"));
+			keys.put("b", key("b.jar 5678"));
+			Assertions.assertTrue(TransformCacheManager.isEverySegmentValid(root, keys));
+		}
+	}
+
+	@Test
+	public void testModInternalsAreIgnored() throws IOException {
+		try (QuiltMemoryFileSystem fs = new QuiltMemoryFileSystem.ReadWrite("segments_internals", true)) {
+			Path root = fs.getRoot();
+			TransformCacheManager.writeSegmentKey(root, "a", key("a.jar 1234"), "old-internals");
+
+			// Checked separately by TransformCacheGenerator, once every mod's internals are known
+			Assertions.assertTrue(TransformCacheManager.isSegmentValid(root, "a", key("a.jar 1234")));
+		}
+	}
+
+	@Test
+	public void testChangedSegmentIsInvalidated() throws IOException, ModResolutionException {
+		try (QuiltMemoryFileSystem fs = new QuiltMemoryFileSystem.ReadWrite("segments_changed", true)) {
+			Path root = fs.getRoot();
+			TransformCacheManager.writeSegmentKey(root, "a", key("a.jar 1234"), "internals");
+			TransformCacheManager.writeSegmentKey(root, "b", key("b.jar 5678"), "internals");
+
+			Assertions.assertFalse(TransformCacheManager.isSegmentValid(root, "a", key("a.jar 4321")));
+			Assertions.assertTrue(TransformCacheManager.isSegmentValid(root, "b", key("b.jar 5678")));
+
+			Map<String, String> extra = key("a.jar 1234");
+			extra.put("access-widener:c", "abcd");
+			Assertions.assertFalse(TransformCacheManager.isSegmentValid(root, "a", extra));
+
+			Map<String, Map<String, String>> keys = new TreeMap<>();
+			keys.put("a", key("a.jar 4321"));
+			keys.put("b", key("b.jar 5678"));
+			Assertions.assertFalse(TransformCacheManager.isEverySegmentValid(root, keys));
+		}
+	}
+
+	@Test
+	public void testAddedAndRemovedSegments() throws IOException, ModResolutionException {
+		try (QuiltMemoryFileSystem fs = new QuiltMemoryFileSystem.ReadWrite("segments_added", true)) {
+			Path root = fs.getRoot();
+			TransformCacheManager.writeSegmentKey(root, "a", key("a.jar 1234"), "internals");
+
+			Assertions.assertFalse(TransformCacheManager.isSegmentValid(root, "b", key("b.jar 5678")));
+
+			Map<String, Map<String, String>> added = new TreeMap<>();
+			added.put("a", key("a.jar 1234"));
+			added.put("b", key("b.jar 5678"));
+			Assertions.assertFalse(TransformCacheManager.isEverySegmentValid(root, added));
+
+			Map<String, Map<String, String>> removed = new TreeMap<>();
+			Assertions.assertFalse(TransformCacheManager.isEverySegmentValid(root, removed));
+		}
+	}
+
+	@Test
+	public void testLoaderChangesOptions() {
+		Map<String, String> hashes = new HashMap<>();
+		hashes.put(QuiltLoaderImpl.MOD_ID, "loader-1");
+
+		Map<String, String> before = new TreeMap<>();
+		TransformCacheManager.putLoaderOptions(before, hashes, false);
+		Assertions.assertEquals(QuiltLoaderImpl.VERSION, before.get("loader-version"));
+
+		hashes.put(QuiltLoaderImpl.MOD_ID, "loader-2");
+		Map<String, String> after = new TreeMap<>();
+		TransformCacheManager.putLoaderOptions(after, hashes, false);
+		Assertions.assertNotEquals(before, after);
+
+		Map<String, String> packageAccess = new TreeMap<>();
+		TransformCacheManager.putLoaderOptions(packageAccess, hashes, true);
+		Assertions.assertNotEquals(after, packageAccess);
+	}
+
+	@Test
+	public void testPackageEnvironmentsRoundTrip() {
+		Map<String, Boolean> packages = new HashMap<>();
+		packages.put("com.example.client", false);
+		packages.put("com.example", true);
+		packages.put("com.example.server", true);
+
+		List<String> lines = TransformCache.writePackageEnvironments(packages);
+		Assertions.assertEquals(Arrays.asList("+com.example", "-com.example.client", "+com.example.server"), lines);
+		Assertions.assertEquals(packages, TransformCache.readPackageEnvironments(lines));
+		Assertions.assertTrue(TransformCache.readPackageEnvironments(Arrays.asList("", "")).isEmpty());
+	}
+
+	@Test
+	public void testPackageEnvironmentsAreReused() throws IOException {
+		try (QuiltMemoryFileSystem previous = new QuiltMemoryFileSystem.ReadWrite("segments_packages_old", true);
+			QuiltMemoryFileSystem next = new QuiltMemoryFileSystem.ReadWrite("segments_packages_new", true)) {
+
+			ModLoadOption a = new TestMod("a");
+			ModLoadOption b = new TestMod("b");
+			List<ModLoadOption> mods = Arrays.asList(a, b);
+
+			TransformCache cache = new TransformCache(previous.getRoot(), mods);
+			cache.setPackageEnvironment(a, "com.example.a", true);
+			cache.setPackageEnvironment(a, "com.example.shared", false);
+			cache.setPackageEnvironment(b, "com.example.shared", true);
+
+			// Mods which disagree are left for Knot to check itself
+			Map<String, Boolean> merged = new HashMap<>();
+			merged.put("com.example.a", true);
+			Assertions.assertEquals(merged, cache.getPackageEnvironments());
+
+			Map<String, Map<String, String>> keys = new TreeMap<>();
+			keys.put("a", key("a.jar 1234"));
+			keys.put("b", key("b.jar 5678"));
+			TransformCacheManager.writeSegments(previous.getRoot(), cache, keys);
+
+			TransformCache reused = new TransformCache(next.getRoot(), mods);
+			reused.reuseSegment(a, previous.getRoot());
+			reused.reuseSegment(b, previous.getRoot());
+			Assertions.assertEquals(cache.getPackageEnvironments(a), reused.getPackageEnvironments(a));
+			Assertions.assertEquals(cache.getPackageEnvironments(b), reused.getPackageEnvironments(b));
+			Assertions.assertEquals(merged, reused.getPackageEnvironments());
+		}
+	}
+
+	/** Only provides an id, which is all that segments need. */
+	static final class TestMod extends ModLoadOption {
+		final String id;
+
+		TestMod(String id) {
+			this.id = id;
+		}
+
+		@Override
+		public String id() {
+			return id;
+		}
+
+		@Override
+		public boolean needsTransforming() {
+			return true;
+		}
+
+		@Override
+		public QuiltPluginContext loader() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ModMetadataExt metadata() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Path from() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Path resourceRoot() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isMandatory() {
+			return true;
+		}
+
+		@Override
+		public String namespaceMappingFrom() {
+			return null;
+		}
+
+		@Override
+		public byte[] computeOriginHash(QuiltFileHasher hasher) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public QuiltLoaderIcon modFileIcon() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public QuiltLoaderIcon modTypeIcon() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ModContainerExt convertToMod(Path transformedResourceRoot) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String shortString() {
+			return id;
+		}
+
+		@Override
+		public String getSpecificInfo() {
+			return id;
+		}
+
+		@Override
+		public QuiltLoaderText describe() {
+			return QuiltLoaderText.of(id);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 QuiltMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.quiltmc.loader.impl.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileHashCacheTester {
+
+	/** Counts how many times each file is actually hashed. */
+	static class CountingCache extends FileHashCache {
+		final AtomicInteger hashed = new AtomicInteger();
+
+		CountingCache(Path file, boolean paranoid) {
+			super(file, FileHashCache.read(file), paranoid);
+		}
+
+		@Override
+		byte[] hash(Path path) throws IOException {
+			hashed.incrementAndGet();
+			return super.hash(path);
+		}
+	}
+
+	private static Path createOldFile(Path dir, String content) throws IOException {
+		Path file = dir.resolve("mod.jar").toAbsolutePath();
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		setOld(file);
+		return file;
+	}
+
+	private static void setOld(Path file) throws IOException {
+		long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+		// Filesystems don't all store milliseconds, so use whole seconds to make sure the value is kept exactly
+		Files.setLastModifiedTime(file, FileTime.fromMillis(old / 1000 * 1000));
+	}
+
+	@Test
+	public void testStatMatch(@TempDir Path dir) throws IOException {
+		Path cacheFile = dir.resolve("cache/file-hashes.bin");
+		Path file = createOldFile(dir, "mod contents");
+		byte[] expected = HashUtil.computeHash(file);
+
+		CountingCache first = new CountingCache(cacheFile, false);
+		Assertions.assertArrayEquals(expected, first.get(file));
+		Assertions.assertArrayEquals(expected, first.get(file));
+		Assertions.assertEquals(1, first.hashed.get());
+		first.store();
+
+		// The next launch uses the stored hash without reading the file
+		CountingCache second = new CountingCache(cacheFile, false);
+		Assertions.assertArrayEquals(expected, second.get(file));
+		Assertions.assertEquals(0, second.hashed.get());
+
+		// Changing the size invalidates it
+		Files.write(file, "changed".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		setOld(file);
+		CountingCache third = new CountingCache(cacheFile, false);
+		Assertions.assertArrayEquals(HashUtil.computeHash(file), third.get(file));
+		Assertions.assertEquals(1, third.hashed.get());
+	}
+
+	@Test
+	public void testModifiedDuringRead(@TempDir Path dir) throws IOException {
+		Path cacheFile = dir.resolve("file-hashes.bin");
+		Path file = createOldFile(dir, "mod contents");
+		byte[] before = HashUtil.computeHash(file);
+
+		FileHashCache first = new FileHashCache(cacheFile, FileHashCache.read(cacheFile), false) {
+			@Override
+			byte[] hash(Path path) throws IOException {
+				byte[] hash = super.hash(path);
+				// Another process writes to the file while we are reading it
+				Files.write(path, "more".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+				setOld(path);
+				return hash;
+			}
+		};
+		Assertions.assertArrayEquals(before, first.get(file));
+		first.store();
+
+		Assertions.assertTrue(FileHashCache.read(cacheFile).isEmpty());
+		CountingCache second = new CountingCache(cacheFile, false);
+		Assertions.assertArrayEquals(HashUtil.computeHash(file), second.get(file));
+		Assertions.assertEquals(1, second.hashed.get());
+	}
+
+	@Test
+	public void testRecentlyModifiedFileIsNotStored(@TempDir Path dir) throws IOException {
+		Path cacheFile = dir.resolve("file-hashes.bin");
+		Path file = dir.resolve("mod.jar").toAbsolutePath();
+		Files.write(file, "mod contents".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+		CountingCache first = new CountingCache(cacheFile, false);
+		Assertions.assertArrayEquals(HashUtil.computeHash(file), first.get(file));
+		first.store();
+		Assertions.assertTrue(FileHashCache.read(cacheFile).isEmpty());
+
+		// Once it's older than MIN_AGE_MILLIS it can be stored
+		long old = System.currentTimeMillis() - 2 * FileHashCache.MIN_AGE_MILLIS;
+		Files.setLastModifiedTime(file, FileTime.fromMillis(old));
+		CountingCache second = new CountingCache(cacheFile, false);
+		second.get(file);
+		second.store();
+		Assertions.assertTrue(FileHashCache.read(cacheFile).containsKey(file.toString()));
+	}
+
+	@Test
+	public void testParanoidMismatch(@TempDir Path dir) throws IOException {
+		Path cacheFile = dir.resolve("file-hashes.bin");
+		Path file = createOldFile(dir, "mod contents");
+		byte[] original = HashUtil.computeHash(file);
+
+		FileHashCache first = new FileHashCache(cacheFile, FileHashCache.read(cacheFile), false);
+		first.get(file);
+		first.store();
+
+		// Same size and modification time, but different contents
+		FileTime modified = Files.getLastModifiedTime(file);
+		Files.write(file, "MOD CONTENTS".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file, modified);
+		byte[] changed = HashUtil.computeHash(file);
+
+		// Without paranoid mode the stale hash is trusted
+		CountingCache trusting = new CountingCache(cacheFile, false);
+		Assertions.assertArrayEquals(original, trusting.get(file));
+		Assertions.assertEquals(0, trusting.hashed.get());
+
+		// Paranoid mode still returns the stored hash, but checks it in the background and doesn't keep it
+		CountingCache paranoid = new CountingCache(cacheFile, true);
+		Assertions.assertArrayEquals(original, paranoid.get(file));
+		paranoid.store();
+		Assertions.assertEquals(1, paranoid.hashed.get());
+		Assertions.assertFalse(FileHashCache.read(cacheFile).containsKey(file.toString()));
+
+		CountingCache next = new CountingCache(cacheFile, true);
+		Assertions.assertArrayEquals(changed, next.get(file));
+		Assertions.assertEquals(1, next.hashed.get());
+	}
+}